@@ -0,0 +1,76 @@
+package main;
+
+import java.awt.event.ComponentEvent;
+import java.awt.event.ComponentListener;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Reproducible test data for the benchmarks.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class BenchmarkData {
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Lines in the format of <code>plants.txt</code>, spread over the area of BW
+	 */
+	public static List<String> plantLines(int count) {
+		Random r = new Random(42);
+		List<String> lines = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			lines.add(String.format(Locale.ROOT, "Plant-%d;%d;%.3f;%.3f",
+					i, 1000 + r.nextInt(500000), 7.6 + r.nextDouble() * 2.3, 47.6 + r.nextDouble() * 2.1));
+		}
+		return lines;
+	}
+
+	/**
+	 * Registry of <code>count</code> plants, loaded from a temporary file
+	 */
+	public static PlantRegistry registry(int count) throws IOException {
+		Path file = Files.createTempFile("plants", ".txt");
+		try {
+			Files.write(file, plantLines(count));
+			return PlantRegistry.load(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Random measurements for the plants, <code>perPlant</code> per plant
+	 */
+	public static VariantMeasurement[] measurements(PlantRegistry registry, int perPlant) {
+		Random r = new Random(7);
+		VariantMeasurement[] result = new VariantMeasurement[registry.size() * perPlant];
+		for (int i = 0; i < result.length; i++) {
+			int[] values = new int[VariantRegistry.getDefault().size()];
+			for (int v = 0; v < values.length; v++) {
+				values[v] = r.nextInt(200);
+			}
+			result[i] = new VariantMeasurement(registry.getPlant(i % registry.size()), 1_600_000_000_000L + i * 1000L, values);
+		}
+		return result;
+	}
+
+	/**
+	 * Give the map a size and let it calculate its transformation, as a layout manager would
+	 */
+	public static BWMap layoutMap(BWMap map, int width, int height) {
+		map.setSize(width, height);
+		for (ComponentListener l :
+				map.getComponentListeners()) {
+			l.componentResized(new ComponentEvent(map, ComponentEvent.COMPONENT_RESIZED));
+		}
+		return map;
+	}
+}
@@ -0,0 +1,28 @@
+package main;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like the JMH main class, but writes the results as JSON to <code>jmh-result.json</code>
+ * unless told otherwise, so CI can compare runs.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		Options options = new OptionsBuilder()
+				.parent(cmd)
+				.resultFormat(cmd.getResultFormat().orElse(ResultFormatType.JSON))
+				.result(cmd.getResult().orElse("jmh-result.json"))
+				.build();
+		new Runner(options).run();
+	}
+}
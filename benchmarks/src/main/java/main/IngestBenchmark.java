@@ -0,0 +1,79 @@
+package main;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of applying measurements to the RKI state (aggregates, distributions) with a growing number of plants.
+ * Ingest should not depend on the number of plants. {@link RKITerminal} itself is a JFrame, so the headless
+ * {@link MeasurementStore} behind it is measured (without journal).
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class IngestBenchmark {
+
+	@Param({"10", "1000", "100000"})
+	public int plants;
+
+	private MeasurementStore store;
+	private List<VariantMeasurement>[] singles;
+	private List<VariantMeasurement> batch;
+	private int next = 0;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		PlantRegistry registry = BenchmarkData.registry(this.plants);
+		VariantMeasurement[] measurements = BenchmarkData.measurements(registry, 2);
+
+		this.store = new MeasurementStore();
+		this.store.restore(Arrays.asList(measurements).subList(0, registry.size()));
+
+		this.singles = new List[measurements.length];
+		for (int i = 0; i < measurements.length; i++) {
+			this.singles[i] = Collections.singletonList(measurements[i]);
+		}
+		this.batch = Arrays.asList(measurements).subList(0, Math.min(1000, measurements.length));
+	}
+
+	@Benchmark
+	public MeasurementStore receiveMeasurement() {
+		this.store.receiveMeasurements(this.singles[this.next]);
+		this.next = (this.next + 1) % this.singles.length;
+		return this.store;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public MeasurementStore receiveBatch() {
+		this.store.receiveMeasurements(this.batch);
+		return this.store;
+	}
+
+	@Benchmark
+	public double readAverages() {
+		return this.store.getTotals().getAverage(VariantRegistry.getDefault().get("DELTA"));
+	}
+}
@@ -0,0 +1,97 @@
+package main;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marker updates, tool tip lookup and headless painting of {@link BWMap} with a growing number of markers.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MapBenchmark {
+
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 900;
+
+	@Param({"100", "10000", "100000"})
+	public int markers;
+
+	@Param({"true", "false"})
+	public boolean clustering;
+
+	private BWMap map;
+	private PlantRegistry registry;
+	private MouseEvent[] mouseEvents;
+	private BufferedImage image;
+	private Graphics2D graphics;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.registry = BenchmarkData.registry(this.markers);
+		this.map = BenchmarkData.layoutMap(new BWMap(), WIDTH, HEIGHT);
+		this.map.setClusteringEnabled(this.clustering);
+		for (SewagePlant p :
+				this.registry.getPlants()) {
+			this.map.setMapItem(p, p.getId() % 600);
+		}
+
+		this.mouseEvents = new MouseEvent[1024];
+		for (int i = 0; i < this.mouseEvents.length; i++) {
+			this.mouseEvents[i] = new MouseEvent(this.map, MouseEvent.MOUSE_MOVED, 0, 0,
+					(i * 37) % WIDTH, (i * 53) % HEIGHT, 0, false);
+		}
+
+		this.image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		this.graphics = this.image.createGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.graphics.dispose();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public BWMap setMapItem() {
+		this.next = (this.next + 1) % this.registry.size();
+		this.map.setMapItem(this.registry.getPlant(this.next), this.next % 600);
+		return this.map;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String getToolTipText() {
+		this.next = (this.next + 1) & 1023;
+		return this.map.getToolTipText(this.mouseEvents[this.next]);
+	}
+
+	@Benchmark
+	public BufferedImage paint() {
+		this.map.paint(this.graphics);
+		return this.image;
+	}
+}
@@ -0,0 +1,50 @@
+package main;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading a measurement.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MeasurementBenchmark {
+
+	private VariantMeasurement meas;
+
+	@Setup
+	public void setup() throws KloaCov2Exception {
+		this.meas = new VariantMeasurement(new SewagePlant(0, "Plant", 1000, 8.4, 49.0),
+				System.currentTimeMillis(), new int[]{5, 2, 1, 2, 45});
+	}
+
+	@Benchmark
+	public int getTotalValue() {
+		return this.meas.getTotalValue();
+	}
+
+	@Benchmark
+	public int sumValues() {
+		int sum = 0;
+		for (int i = 0; i < this.meas.getValueCount(); i++) {
+			sum += this.meas.getValue(i);
+		}
+		return sum;
+	}
+}
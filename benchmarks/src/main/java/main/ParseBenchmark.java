@@ -0,0 +1,55 @@
+package main;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing lines of <code>plants.txt</code> and of the text log.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ParseBenchmark {
+
+	private static final String LOG_LINE = "Plant-3 (Fri Oct 15 10:58:52 CEST 2021): {LAMBDA (C.37)=2, DELTA (B.1.617)=321, "
+			+ "GAMMA (P.1)=65321, ALPHA (B.1.1.7)=984, BETA (B.1.351)=654}";
+
+	private List<String> plantLines;
+	private StateRecovery recovery;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.plantLines = BenchmarkData.plantLines(1024);
+		this.recovery = new StateRecovery(BenchmarkData.registry(10));
+	}
+
+	@Benchmark
+	public SewagePlant parsePlant() throws KloaCov2Exception {
+		this.next = (this.next + 1) & 1023;
+		return KloaCov2.parsePlant(this.next, this.plantLines.get(this.next));
+	}
+
+	@Benchmark
+	public VariantMeasurement parseLogLine() {
+		return this.recovery.parseLine(LOG_LINE);
+	}
+}
@@ -0,0 +1,170 @@
+package main;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Keeps running aggregates over the latest measurement of every plant.
+ * <p>
+ * Instead of walking all measurements on every update, the per-variant sums,
+ * the number of measuring plants and the total population are adjusted by the
+ * delta between the replaced and the new measurement of a plant.
+ * <p>
+ * The aggregates are split into stripes, a plant always updates the same stripe. Writers only lock their
+ * stripe, so updates of different plants run in parallel. Readers never block writers: every stripe is read
+ * optimistically and the stripes are summed up, so a reader sees every single update either completely or not
+ * at all.
+ * <p>
+ * The sums grow when a measurement carries a variant registered after the stripe was created.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class AggregateEngine {
+
+	/**
+	 * Consistent copy of the aggregates
+	 */
+	public static class Totals {
+		private final long[] sums;
+		private final int count;
+		private final long totalPopulation;
+
+		Totals(long[] sums, int count, long totalPopulation) {
+			this.sums = sums;
+			this.count = count;
+			this.totalPopulation = totalPopulation;
+		}
+
+		public long getSum(Variant v) {
+			return v.getId() < this.sums.length ? this.sums[v.getId()] : 0;
+		}
+
+		public double getAverage(Variant v) {
+			if (this.count == 0) {
+				return 0;
+			}
+			return (double) this.getSum(v) / this.count;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public long getTotalPopulation() {
+			return totalPopulation;
+		}
+	}
+
+	private static class Stripe {
+		private final StampedLock lock = new StampedLock();
+		private long[] sums = new long[VariantRegistry.getDefault().size()];
+		private int count = 0;
+		private long totalPopulation = 0;
+	}
+
+	private final Stripe[] stripes;
+	private final int mask;
+
+	public AggregateEngine() {
+		// power of two, some more stripes than cores to keep collisions rare
+		int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+		this.stripes = new Stripe[n];
+		for (int i = 0; i < n; i++) {
+			this.stripes[i] = new Stripe();
+		}
+		this.mask = n - 1;
+	}
+
+	/**
+	 * Replace the measurement of a plant.
+	 *
+	 * @param old measurement previously stored for the plant, <code>null</code> if there was none
+	 * @param meas new measurement of the plant
+	 */
+	public void replace(VariantMeasurement old, VariantMeasurement meas) {
+		Stripe s = this.stripeOf(meas.getPlant());
+		long stamp = s.lock.writeLock();
+		try {
+			int values = Math.max(meas.getValueCount(), old == null ? 0 : old.getValueCount());
+			if (values > s.sums.length) {
+				s.sums = Arrays.copyOf(s.sums, values);
+			}
+			if (old == null) {
+				s.count++;
+				s.totalPopulation += meas.getPlant().getPopulation();
+			} else {
+				for (int i = 0; i < s.sums.length; i++) {
+					s.sums[i] -= old.getValue(i);
+				}
+			}
+			for (int i = 0; i < s.sums.length; i++) {
+				s.sums[i] += meas.getValue(i);
+			}
+		} finally {
+			s.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @return copy of the aggregates, every update is either completely contained or not at all
+	 */
+	public Totals snapshot() {
+		long[] sums = new long[VariantRegistry.getDefault().size()];
+		long[] stripeSums = new long[sums.length];
+		int count = 0;
+		long totalPopulation = 0;
+		for (Stripe s :
+				this.stripes) {
+			long stamp = s.lock.tryOptimisticRead();
+			copySums(s.sums, stripeSums);
+			int stripeCount = s.count;
+			long stripePopulation = s.totalPopulation;
+			if (!s.lock.validate(stamp)) {
+				stamp = s.lock.readLock();
+				try {
+					copySums(s.sums, stripeSums);
+					stripeCount = s.count;
+					stripePopulation = s.totalPopulation;
+				} finally {
+					s.lock.unlockRead(stamp);
+				}
+			}
+			for (int i = 0; i < sums.length; i++) {
+				sums[i] += stripeSums[i];
+			}
+			count += stripeCount;
+			totalPopulation += stripePopulation;
+		}
+		return new Totals(sums, count, totalPopulation);
+	}
+
+	/**
+	 * Copy as many sums as fit, sums of variants the source does not know yet are <code>0</code>
+	 */
+	private static void copySums(long[] from, long[] to) {
+		int n = Math.min(from.length, to.length);
+		System.arraycopy(from, 0, to, 0, n);
+		Arrays.fill(to, n, to.length, 0);
+	}
+
+	public long getSum(Variant v) {
+		return this.snapshot().getSum(v);
+	}
+
+	public double getAverage(Variant v) {
+		return this.snapshot().getAverage(v);
+	}
+
+	public int getCount() {
+		return this.snapshot().getCount();
+	}
+
+	public long getTotalPopulation() {
+		return this.snapshot().getTotalPopulation();
+	}
+
+	private Stripe stripeOf(SewagePlant plant) {
+		int hash = plant.getId() >= 0 ? plant.getId() : System.identityHashCode(plant);
+		return this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+	}
+}
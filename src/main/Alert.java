@@ -0,0 +1,81 @@
+package main;
+
+import java.util.Date;
+
+/**
+ * Change of an {@link AlertRule} for one value of a plant: raised when the rule starts to hold, cleared with the
+ * first measurement for which it no longer holds.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class Alert {
+
+	private final SewagePlant plant;
+	private final Variant variant;
+	private final AlertRule rule;
+	private final boolean raised;
+	private final int value;
+	private final double baseline;
+	private final double zScore;
+	private final long timestamp;
+
+	public Alert(SewagePlant plant, Variant variant, AlertRule rule, boolean raised, int value, double baseline,
+				 double zScore, long timestamp) {
+		this.plant = plant;
+		this.variant = variant;
+		this.rule = rule;
+		this.raised = raised;
+		this.value = value;
+		this.baseline = baseline;
+		this.zScore = zScore;
+		this.timestamp = timestamp;
+	}
+
+	public SewagePlant getPlant() {
+		return plant;
+	}
+
+	public Variant getVariant() {
+		return variant;
+	}
+
+	public AlertRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * @return <code>true</code> if the rule started to hold, <code>false</code> if it stopped
+	 */
+	public boolean isRaised() {
+		return raised;
+	}
+
+	/**
+	 * @return value of the measurement that changed the alert
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	/**
+	 * @return average of the plant's earlier values, the measurement itself not included
+	 */
+	public double getBaseline() {
+		return baseline;
+	}
+
+	public double getZScore() {
+		return zScore;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%tF %<tT %s: %s %s=%d (baseline %.1f, z %.1f), %s", new Date(this.timestamp),
+				this.raised ? "ALERT" : "cleared", this.plant.getName(), this.variant, this.value, this.baseline,
+				this.zScore, this.rule);
+	}
+}
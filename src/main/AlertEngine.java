@@ -0,0 +1,348 @@
+package main;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates {@link AlertRule}s against every measurement while it is received and reports {@link Alert}s.
+ * <p>
+ * Every value of a plant has a baseline: its exponentially weighted moving average and variance, kept in flat
+ * primitive arrays (one slot per plant id and variant id). A value is compared to the baseline of the values
+ * before it, then added to it. Z-score rules only hold once the baseline has {@link #MIN_SAMPLES} values.
+ * An alert is raised when a rule starts to hold for a value and cleared when it stops, not for every measurement
+ * in between.
+ * <p>
+ * Evaluation runs inline on the thread that applied the batch. It takes O(rules) per value and does not allocate,
+ * except when a new plant or variant makes the arrays grow. Changes are written to a bounded ring of primitive
+ * arrays, a dispatcher thread turns them into {@link Alert}s and notifies the listeners. If the listeners fall
+ * behind and the ring is full, further changes are dropped and counted, the ingest never waits for them. A dropped
+ * change is not committed either, so it is reported with the next measurement of the value that still has it.
+ * <p>
+ * Plants without an id are not evaluated.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class AlertEngine implements MeasurementListener {
+
+	/**
+	 * Weight of a new value in the baseline
+	 */
+	public static final double DEFAULT_ALPHA = 0.1;
+
+	/**
+	 * Values a baseline needs before z-score rules are applied to it. The variance starts at <code>0</code> and is
+	 * too small before, with {@link #DEFAULT_ALPHA} the first values still have a weight of about 5 %.
+	 */
+	public static final int MIN_SAMPLES = 30;
+
+	/**
+	 * Alert changes that may wait for the dispatcher, a power of two
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	/**
+	 * Lower bound of the standard deviation, so a plant that always reported the same value does not alert on
+	 * a difference of one
+	 */
+	private static final double MIN_DEVIATION = 1;
+
+	/**
+	 * The active rules of a value are kept as bits of an int
+	 */
+	private static final int MAX_RULES = Integer.SIZE;
+
+	/**
+	 * Longest time the idle dispatcher sleeps before it looks for new changes again
+	 */
+	private static final long IDLE_NANOS = 100_000_000;
+
+	private final AlertRule[] rules;
+	private final double alpha;
+
+	/*
+	 * Rules flattened for the evaluation: kind, variant id (-1 for every variant) and limit
+	 */
+	private final boolean[] ruleThreshold;
+	private final int[] ruleVariants;
+	private final double[] ruleLimits;
+
+	/*
+	 * Baselines, index = plant id * stride + variant id, guarded by this
+	 */
+	private int stride;
+	private int plantCapacity = 0;
+	private double[] means = new double[0];
+	private double[] variances = new double[0];
+	private int[] samples = new int[0];
+	private int[] active = new int[0];
+
+	/*
+	 * Ring of alert changes, written by the evaluating thread (holding the lock of this) and read by the
+	 * dispatcher. Slot head & mask is the next one to write, tail & mask the next one to read.
+	 */
+	private final int mask;
+	private final SewagePlant[] queuePlants;
+	private final int[] queueVariants;
+	private final int[] queueRules;
+	private final boolean[] queueRaised;
+	private final int[] queueValues;
+	private final double[] queueBaselines;
+	private final double[] queueScores;
+	private final long[] queueTimestamps;
+	private volatile long head = 0;
+	private volatile long tail = 0;
+
+	private final Thread dispatcher;
+	private volatile boolean running = false;
+
+	private final List<Consumer<Alert>> listeners = new CopyOnWriteArrayList<>();
+
+	private final Counter raised = MetricsRegistry.getDefault().counter("alerts.raised");
+	private final Counter cleared = MetricsRegistry.getDefault().counter("alerts.cleared");
+	private final Counter dropped = MetricsRegistry.getDefault().counter("alerts.dropped");
+	private final Histogram evaluationTime = MetricsRegistry.getDefault().histogram("alerts.evaluationTime");
+
+	public AlertEngine(List<AlertRule> rules) throws KloaCov2Exception {
+		this(rules, DEFAULT_ALPHA, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @param alpha         weight of a new value in the baseline, between <code>0</code> and <code>1</code>
+	 * @param queueCapacity alert changes that may wait for the dispatcher, rounded up to a power of two
+	 * @throws KloaCov2Exception if there are more than {@link #MAX_RULES} rules
+	 */
+	public AlertEngine(List<AlertRule> rules, double alpha, int queueCapacity) throws KloaCov2Exception {
+		if (rules.size() > MAX_RULES) {
+			throw new KloaCov2Exception("At most " + MAX_RULES + " alert rules are supported, got " + rules.size());
+		}
+		this.rules = rules.toArray(new AlertRule[0]);
+		this.alpha = alpha;
+		this.ruleThreshold = new boolean[this.rules.length];
+		this.ruleVariants = new int[this.rules.length];
+		this.ruleLimits = new double[this.rules.length];
+		for (int r = 0; r < this.rules.length; r++) {
+			this.ruleThreshold[r] = this.rules[r].getKind() == AlertRule.Kind.THRESHOLD;
+			this.ruleVariants[r] = this.rules[r].getVariant() == null ? -1 : this.rules[r].getVariant().getId();
+			this.ruleLimits[r] = this.rules[r].getLimit();
+		}
+		this.stride = VariantRegistry.getDefault().size();
+
+		int capacity = Integer.highestOneBit(Math.max(1, queueCapacity - 1)) << 1;
+		this.mask = capacity - 1;
+		this.queuePlants = new SewagePlant[capacity];
+		this.queueVariants = new int[capacity];
+		this.queueRules = new int[capacity];
+		this.queueRaised = new boolean[capacity];
+		this.queueValues = new int[capacity];
+		this.queueBaselines = new double[capacity];
+		this.queueScores = new double[capacity];
+		this.queueTimestamps = new long[capacity];
+
+		this.dispatcher = new Thread(this::dispatch, "alert-dispatcher");
+		this.dispatcher.setDaemon(true);
+		MetricsRegistry.getDefault().gauge("alerts.pending", () -> this.head - this.tail);
+	}
+
+	public List<AlertRule> getRules() {
+		return Collections.unmodifiableList(Arrays.asList(this.rules));
+	}
+
+	/**
+	 * Be notified of raised and cleared alerts. Listeners are called on the dispatcher thread, in the order the
+	 * alerts changed.
+	 */
+	public void addListener(Consumer<Alert> listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(Consumer<Alert> listener) {
+		this.listeners.remove(listener);
+	}
+
+	public void start() {
+		this.running = true;
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Stop the dispatcher after it delivered all pending alerts
+	 */
+	public void stop() throws InterruptedException {
+		this.running = false;
+		LockSupport.unpark(this.dispatcher);
+		this.dispatcher.join();
+	}
+
+	/**
+	 * Add measurements to the baselines without raising alerts, e.g. the journal replayed by
+	 * {@link StateRecovery#addReplayListener(MeasurementListener)}. Baselines are not part of the snapshots, so
+	 * after a restart they only know the measurements behind the restored snapshot.
+	 */
+	public synchronized void train(List<VariantMeasurement> batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			this.evaluate(batch.get(i), false);
+		}
+	}
+
+	@Override
+	public void measurementsApplied(List<VariantMeasurement> batch) {
+		long start = System.nanoTime();
+		long published;
+		synchronized (this) {
+			long before = this.head;
+			for (int i = 0; i < batch.size(); i++) {
+				this.evaluate(batch.get(i), true);
+			}
+			published = this.head - before;
+		}
+		if (published > 0) {
+			LockSupport.unpark(this.dispatcher);
+		}
+		this.evaluationTime.recordSince(start);
+	}
+
+	/**
+	 * Compare every value of the measurement to its baseline, then add it to the baseline
+	 *
+	 * @param notify whether changed rules are published, <code>false</code> to only train the baselines
+	 */
+	private void evaluate(VariantMeasurement meas, boolean notify) {
+		int plant = meas.getPlant().getId();
+		if (plant < 0) {
+			return;
+		}
+		int count = meas.getValueCount();
+		if (plant >= this.plantCapacity || count > this.stride) {
+			this.grow(plant + 1, count);
+		}
+		int base = plant * this.stride;
+		for (int v = 0; v < count; v++) {
+			int i = base + v;
+			int value = meas.getValue(v);
+			double mean = this.means[i];
+			double variance = this.variances[i];
+			int n = this.samples[i];
+			double z = n == 0 ? 0 : (value - mean) / Math.max(Math.sqrt(variance), MIN_DEVIATION);
+
+			if (notify) {
+				int next = 0;
+				for (int r = 0; r < this.ruleLimits.length; r++) {
+					if (this.ruleVariants[r] >= 0 && this.ruleVariants[r] != v) {
+						continue;
+					}
+					boolean holds = this.ruleThreshold[r] ? value >= this.ruleLimits[r]
+							: n >= MIN_SAMPLES && z >= this.ruleLimits[r];
+					if (holds) {
+						next |= 1 << r;
+					}
+				}
+				int changed = next ^ this.active[i];
+				while (changed != 0) {
+					int r = Integer.numberOfTrailingZeros(changed);
+					changed &= changed - 1;
+					// a dropped change is not committed, so the next measurement tries again
+					if (this.publish(meas.getPlant(), v, r, (next & (1 << r)) != 0, value, mean, z, meas.getTimestamp())) {
+						this.active[i] ^= 1 << r;
+					}
+				}
+			}
+
+			if (n == 0) {
+				this.means[i] = value;
+				this.variances[i] = 0;
+			} else {
+				double diff = value - mean;
+				double increment = this.alpha * diff;
+				this.means[i] = mean + increment;
+				this.variances[i] = (1 - this.alpha) * (variance + diff * increment);
+			}
+			if (n < Integer.MAX_VALUE) {
+				this.samples[i] = n + 1;
+			}
+		}
+	}
+
+	/**
+	 * Make room for the plant ids below <code>plants</code> and the variant ids below <code>variants</code>
+	 */
+	private void grow(int plants, int variants) {
+		int stride = Math.max(this.stride, variants);
+		int capacity = Math.max(this.plantCapacity, plants);
+		if (capacity > this.plantCapacity) {
+			capacity = Math.max(capacity, Math.max(16, this.plantCapacity * 2));
+		}
+		double[] means = new double[capacity * stride];
+		double[] variances = new double[capacity * stride];
+		int[] samples = new int[capacity * stride];
+		int[] active = new int[capacity * stride];
+		for (int p = 0; p < this.plantCapacity; p++) {
+			System.arraycopy(this.means, p * this.stride, means, p * stride, this.stride);
+			System.arraycopy(this.variances, p * this.stride, variances, p * stride, this.stride);
+			System.arraycopy(this.samples, p * this.stride, samples, p * stride, this.stride);
+			System.arraycopy(this.active, p * this.stride, active, p * stride, this.stride);
+		}
+		this.means = means;
+		this.variances = variances;
+		this.samples = samples;
+		this.active = active;
+		this.stride = stride;
+		this.plantCapacity = capacity;
+	}
+
+	/**
+	 * Append a change to the ring, or drop it if the ring is full
+	 *
+	 * @return whether the change was appended
+	 */
+	private boolean publish(SewagePlant plant, int variant, int rule, boolean raised, int value, double baseline,
+						 double zScore, long timestamp) {
+		long head = this.head;
+		if (head - this.tail > this.mask) {
+			this.dropped.increment();
+			return false;
+		}
+		int i = (int) head & this.mask;
+		this.queuePlants[i] = plant;
+		this.queueVariants[i] = variant;
+		this.queueRules[i] = rule;
+		this.queueRaised[i] = raised;
+		this.queueValues[i] = value;
+		this.queueBaselines[i] = baseline;
+		this.queueScores[i] = zScore;
+		this.queueTimestamps[i] = timestamp;
+		// the slot is visible to the dispatcher once head is written
+		this.head = head + 1;
+		(raised ? this.raised : this.cleared).increment();
+		return true;
+	}
+
+	private void dispatch() {
+		VariantRegistry variants = VariantRegistry.getDefault();
+		while (this.running || this.tail != this.head) {
+			long tail = this.tail;
+			if (tail == this.head) {
+				LockSupport.parkNanos(this, IDLE_NANOS);
+				continue;
+			}
+			int i = (int) tail & this.mask;
+			Alert alert = new Alert(this.queuePlants[i], variants.get(this.queueVariants[i]), this.rules[this.queueRules[i]],
+					this.queueRaised[i], this.queueValues[i], this.queueBaselines[i], this.queueScores[i],
+					this.queueTimestamps[i]);
+			this.queuePlants[i] = null;
+			// the slot may be overwritten once tail is written
+			this.tail = tail + 1;
+			for (Consumer<Alert> listener :
+					this.listeners) {
+				try {
+					listener.accept(alert);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
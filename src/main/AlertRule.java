@@ -0,0 +1,128 @@
+package main;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Condition on a single value of a measurement that raises an {@link Alert} while it holds.
+ * <p>
+ * A threshold rule holds while the value is at least the limit. A z-score rule holds while the value is at least
+ * <code>limit</code> standard deviations above the plant's baseline, i.e. only surges are reported. Rules apply
+ * to one variant or to every variant, including variants registered later.
+ * <p>
+ * Rules are read from a file with one rule per line (<code>kind;variant;limit</code>), e.g.
+ * <code>threshold;GAMMA;10000</code> or <code>zscore;*;4</code>.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class AlertRule {
+
+	public enum Kind {
+		THRESHOLD, ZSCORE
+	}
+
+	/**
+	 * Stands for every variant in the rule file
+	 */
+	public static final String ANY_VARIANT = "*";
+
+	private final Kind kind;
+	private final Variant variant;
+	private final double limit;
+
+	/**
+	 * @param variant variant the rule applies to, <code>null</code> for every variant
+	 */
+	public AlertRule(Kind kind, Variant variant, double limit) {
+		this.kind = kind;
+		this.variant = variant;
+		this.limit = limit;
+	}
+
+	public static AlertRule threshold(Variant variant, int limit) {
+		return new AlertRule(Kind.THRESHOLD, variant, limit);
+	}
+
+	public static AlertRule zScore(Variant variant, double limit) {
+		return new AlertRule(Kind.ZSCORE, variant, limit);
+	}
+
+	/**
+	 * Parse a line of the rule file
+	 *
+	 * @throws KloaCov2Exception if the line is malformed or names an unknown variant
+	 */
+	public static AlertRule parse(String line) throws KloaCov2Exception {
+		String[] parts = line.split(";");
+		if (parts.length != 3) {
+			throw new KloaCov2Exception("Expected 3 fields, got " + parts.length + ": " + line);
+		}
+		Kind kind;
+		try {
+			kind = Kind.valueOf(parts[0].trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new KloaCov2Exception("Unknown kind of rule: " + parts[0]);
+		}
+		String name = parts[1].trim();
+		Variant variant = null;
+		if (!name.equals(ANY_VARIANT)) {
+			variant = VariantRegistry.getDefault().get(name);
+			if (variant == null) {
+				throw new KloaCov2Exception("Unknown variant: " + name);
+			}
+		}
+		try {
+			return new AlertRule(kind, variant, Double.parseDouble(parts[2].trim()));
+		} catch (NumberFormatException e) {
+			throw new KloaCov2Exception("Invalid limit in line: " + line);
+		}
+	}
+
+	/**
+	 * Load all rules of a file, empty lines are skipped
+	 *
+	 * @throws KloaCov2Exception if a line cannot be parsed
+	 */
+	public static List<AlertRule> load(Path file) throws IOException, KloaCov2Exception {
+		List<AlertRule> rules = new ArrayList<>();
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			try {
+				rules.add(AlertRule.parse(line));
+			} catch (KloaCov2Exception e) {
+				throw new KloaCov2Exception("Line " + (i + 1) + ": " + e.getMessage());
+			}
+		}
+		return rules;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return variant the rule applies to, <code>null</code> for every variant
+	 */
+	public Variant getVariant() {
+		return variant;
+	}
+
+	public double getLimit() {
+		return limit;
+	}
+
+	@Override
+	public String toString() {
+		String name = this.variant == null ? "value" : this.variant.getName();
+		return this.kind == Kind.THRESHOLD ? String.format("%s >= %.0f", name, this.limit)
+				: String.format("%s z-score >= %.1f", name, this.limit);
+	}
+}
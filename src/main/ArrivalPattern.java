@@ -0,0 +1,37 @@
+package main;
+
+import java.util.SplittableRandom;
+
+/**
+ * When a virtual plant of the {@link LoadGenerator} sends its measurements.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public enum ArrivalPattern {
+	/**
+	 * Single measurements with exponentially distributed gaps
+	 */
+	POISSON,
+	/**
+	 * Batches of measurements (a lab reporting several samples at once), the batches arrive like {@link #POISSON}
+	 */
+	BURSTY;
+
+	/**
+	 * @param rate       measurements per second
+	 * @param burstSize  measurements per batch, only used by {@link #BURSTY}
+	 * @return nanoseconds until the next batch, so that the plant sends <code>rate</code> measurements per second
+	 * on average
+	 */
+	public long nextGap(SplittableRandom random, double rate, int burstSize) {
+		double batchesPerSecond = this == BURSTY ? rate / burstSize : rate;
+		return (long) (-Math.log(1 - random.nextDouble()) / batchesPerSecond * 1e9);
+	}
+
+	/**
+	 * @return number of measurements sent at once
+	 */
+	public int batchSize(int burstSize) {
+		return this == BURSTY ? burstSize : 1;
+	}
+}
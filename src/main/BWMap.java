@@ -1,25 +1,42 @@
 package main;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.LinearGradientPaint;
+import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
-import java.util.LinkedList;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * UI element to show a map of Baden-W&uuml;rttemberg with markers
@@ -66,6 +83,11 @@ public class BWMap extends JPanel {
 	 * Marker size
 	 */
 	private final static int MAP_MARKER_SIZE = 20;	
+
+   /**
+    * Largest distance from (mapX, mapY) a marker draws at: the alert ring plus half of the stroke width
+    */
+   private final static int MARKER_REACH = 18;
 	
 	/**
 	 * Index in coordinate array of border coordinates
@@ -122,15 +144,90 @@ public class BWMap extends JPanel {
     */
    private final static Stroke LEGEND_DRAW_STROKE = new BasicStroke( 1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL );
 
+   /**
+    * Font of cluster labels
+    */
+   private final static Font CLUSTER_FONT = new Font( Font.DIALOG, Font.BOLD, 12 );
+
+   /**
+    * Space (in pixels) to reserve per cluster when choosing the level of detail
+    */
+   private final static int CLUSTER_PIXEL_SIZE = 40;
+
+   /**
+    * Font of legend labels
+    */
+   private final static Font LEGEND_FONT = new Font( Font.DIALOG, Font.PLAIN, 18 );
+
+   /**
+    * Fill of the selected area
+    */
+   private final static Color SELECTION_FILL = new Color( 0, 0, 255, 40 );
+
 	/**
 	 * Transformation to apply in order to scale and center map representation to available space
 	 */
 	private AffineTransform mapTransform;
+
+   /**
+    * Cached rendering of the static map parts for the current size, <code>null</code> if it has to be rendered again
+    */
+   private BufferedImage baseLayer;
 	
 	/**
-    * List of markers
+    * List of markers in order of creation (= drawing order, later markers are drawn on top)
+    */
+   private List<MapMarker> markers = new ArrayList<>();
+
+   /**
+    * Markers by their item (JVM identity good enough for this use case)
+    */
+   private Map<MapItem, MapMarker> markerIndex = new IdentityHashMap<>();
+
+   /**
+    * Markers by location for hit-testing and culling
     */
-   private List<MapMarker> markers = new LinkedList<>();
+   private MarkerGrid markerGrid = new MarkerGrid();
+
+   /**
+    * Markers aggregated into clusters per level of detail
+    */
+   private MarkerClusters markerClusters = new MarkerClusters();
+
+   /**
+    * Markers with an active alert, ringed on top of markers and clusters
+    */
+   private Set<MapMarker> alertedMarkers = new LinkedHashSet<>();
+
+   /**
+    * Flag if markers are combined into clusters when there are too many of them
+    */
+   private boolean clusteringEnabled = true;
+
+   /**
+    * Interpolated surface below the markers
+    */
+   private Heatmap heatmap = new Heatmap( this::repaint );
+
+   /**
+    * Flag if the heatmap is shown
+    */
+   private boolean heatmapEnabled = false;
+
+   /**
+    * Time spent in {@link #paintComponent(Graphics)}
+    */
+   private final Histogram paintTime = MetricsRegistry.getDefault().histogram( "map.paintTime" );
+
+   /**
+    * Area selected by dragging the mouse (in original coordinate space), <code>null</code> for the whole map
+    */
+   private Rectangle selection;
+
+   /**
+    * Notified with the new area (see {@link #getSelectedArea()}) whenever the selection changes
+    */
+   private List<Consumer<Rectangle2D>> selectionListeners = new ArrayList<>();
 
    /**
     * Create the BW Map
@@ -167,10 +264,122 @@ public class BWMap extends JPanel {
 				if ( deltaX != 0 || deltaY != 0 ) {
 					BWMap.this.mapTransform.preConcatenate(AffineTransform.getTranslateInstance(deltaX, deltaY));
 				}
+            BWMap.this.baseLayer = null;
             BWMap.this.repaint();
 			}
 		});
+
+      // drag to select an area, click to select the whole map again
+      final MouseAdapter selector = new MouseAdapter() {
+         private Point2D start;
+
+         @Override
+         public void mousePressed( MouseEvent e ) {
+            this.start = BWMap.this.toMapSpace( e.getPoint() );
+         }
+
+         @Override
+         public void mouseDragged( MouseEvent e ) {
+            final Point2D end = BWMap.this.toMapSpace( e.getPoint() );
+            if ( this.start != null && end != null ) {
+               final Rectangle area = new Rectangle( (int) this.start.getX(), (int) this.start.getY(), 0, 0 );
+               area.add( end );
+               BWMap.this.setSelection( area );
+            }
+         }
+
+         @Override
+         public void mouseReleased( MouseEvent e ) {
+            final Point2D end = BWMap.this.toMapSpace( e.getPoint() );
+            if ( this.start != null && end != null && this.start.distance( end ) < 2 ) {
+               BWMap.this.setSelection( null );
+            }
+            this.start = null;
+         }
+      };
+      this.addMouseListener( selector );
+      this.addMouseMotionListener( selector );
 	}
+
+   /**
+    * Register a listener for changes of the selected area
+    * 
+    * @param listener
+    *           called on the EDT with the new area, see {@link #getSelectedArea()}
+    */
+   public void addSelectionListener( Consumer<Rectangle2D> listener ) {
+      this.selectionListeners.add( listener );
+   }
+
+   /**
+    * Get the selected area, or the whole map if nothing is selected
+    * 
+    * @return area as longitude (x) and latitude (y), the rectangle starts at the south west corner
+    */
+   public Rectangle2D getSelectedArea() {
+      if ( this.selection == null ) {
+         return new Rectangle2D.Double( BWMap.MIN_LON, BWMap.MIN_LAT, BWMap.MAX_LON - BWMap.MIN_LON, BWMap.MAX_LAT - BWMap.MIN_LAT );
+      }
+      final double minLon = BWMap.toLongitude( this.selection.getMinX() );
+      final double maxLon = BWMap.toLongitude( this.selection.getMaxX() );
+      final double minLat = BWMap.toLatitude( this.selection.getMaxY() );
+      final double maxLat = BWMap.toLatitude( this.selection.getMinY() );
+      return new Rectangle2D.Double( minLon, minLat, maxLon - minLon, maxLat - minLat );
+   }
+
+   /**
+    * Change the selection, repaint it and notify the listeners
+    * 
+    * @param area
+    *           new selection (in original coordinate space), <code>null</code> for the whole map
+    */
+   private void setSelection( Rectangle area ) {
+      this.repaintSelection();
+      this.selection = area;
+      this.repaintSelection();
+      final Rectangle2D selected = this.getSelectedArea();
+      for ( Consumer<Rectangle2D> l : this.selectionListeners ) {
+         l.accept( selected );
+      }
+   }
+
+   private void repaintSelection() {
+      if ( this.selection != null && this.mapTransform != null ) {
+         final Rectangle bounds = this.mapTransform.createTransformedShape( this.selection ).getBounds();
+         bounds.grow( 2, 2 );
+         this.repaint( bounds );
+      }
+   }
+
+   /**
+    * Convert a point of the component to the original coordinate space
+    * 
+    * @return converted point, <code>null</code> if the map was not laid out yet
+    */
+   private Point2D toMapSpace( Point2D p ) {
+      if ( this.mapTransform == null ) {
+         return null;
+      }
+      try {
+         return this.mapTransform.inverseTransform( p, null );
+      } catch ( NoninvertibleTransformException e ) {
+         return null;
+      }
+   }
+
+   /**
+    * Inverse of {@link MapMarker#getMapX(MapItem)} for the center of a marker
+    */
+   private static double toLongitude( double mapX ) {
+      return BWMap.MIN_LON + (mapX + BWMap.MAP_MARKER_SIZE / 2 - BWMap.MARGIN) / BWMap.MAP_REF_WIDTH * (BWMap.MAX_LON - BWMap.MIN_LON);
+   }
+
+   /**
+    * Inverse of {@link MapMarker#getMapY(MapItem)} for the center of a marker
+    */
+   private static double toLatitude( double mapY ) {
+      return BWMap.MIN_LAT + (1 - (mapY + BWMap.MAP_MARKER_SIZE / 2 - BWMap.MARGIN) / BWMap.MAP_REF_HEIGHT) * (BWMap.MAX_LAT - BWMap.MIN_LAT);
+   }
 	
    /**
     * Add item to map
@@ -182,17 +391,45 @@ public class BWMap extends JPanel {
     */
    public void setMapItem( MapItem item, int value ) {
       if ( item != null ) {
-         for ( MapMarker m : this.markers ) {
-            // item found (JVM identity good enough for this use case)
-            // --> just update value
-            if ( m.item == item ) {
-               m.setValue( value );
-               this.repaint();
-               return;
-            }
+         MapMarker m = this.markerIndex.get( item );
+         // item found --> just update value
+         if ( m != null ) {
+            final int oldValue = m.value;
+            m.setValue( value );
+            this.markerClusters.update( m, oldValue );
+            this.heatmap.update( m );
+            this.repaintMarker( m );
+            return;
          }
-         this.markers.add( new MapMarker( item, value ) );
-         this.repaint();
+         m = new MapMarker( item, value, this.markers.size() );
+         this.markers.add( m );
+         this.markerIndex.put( item, m );
+         this.markerGrid.add( m );
+         this.markerClusters.add( m );
+         this.heatmap.update( m );
+         this.repaintMarker( m );
+      }
+   }
+
+   /**
+    * Ring the marker of an item while it has an alert. An item not on the map yet is added with value 0.
+    * 
+    * @param item
+    *           item of the marker
+    * @param alerted
+    *           <code>true</code> to ring the marker, <code>false</code> to remove the ring
+    */
+   public void setAlerted( MapItem item, boolean alerted ) {
+      if ( item == null ) {
+         return;
+      }
+      if ( !this.markerIndex.containsKey( item ) ) {
+         this.setMapItem( item, 0 );
+      }
+      final MapMarker m = this.markerIndex.get( item );
+      if ( alerted ? this.alertedMarkers.add( m ) : this.alertedMarkers.remove( m ) ) {
+         m.alerted = alerted;
+         this.repaintMarker( m );
       }
    }
 
@@ -201,18 +438,98 @@ public class BWMap extends JPanel {
     */
 	@Override
    protected void paintComponent( Graphics g ) {
+      final long start = System.nanoTime();
       super.paintComponent( g );
       final Graphics2D g2 = ((Graphics2D) g);
 
-      // make it a little bit prettier :-)
-      g2.setRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON );
-      g2.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
-      g2.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
-
       if ( this.mapTransform != null ) {
+         // static parts are only rendered once per size
+         if ( this.baseLayer == null ) {
+            this.baseLayer = this.renderBaseLayer();
+         }
+         g2.drawImage( this.baseLayer, 0, 0, null );
+
+         if ( this.heatmapEnabled ) {
+            this.heatmap.render();
+            this.heatmap.paint( g2, this.mapTransform, this.getWidth(), this.getHeight() );
+         }
+
+         // make it a little bit prettier :-)
+         g2.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+
          final AffineTransform originalTransform = g2.getTransform();
          final Stroke originalStroke = g2.getStroke();
 
+         // centered and scaled according to available space
+         g2.transform( this.mapTransform );
+         g2.setStroke( BWMap.MAP_DRAW_STROKE );
+
+         final int level = this.getClusterLevel();
+         if ( level > 0 ) {
+            g2.setFont( BWMap.CLUSTER_FONT );
+            for ( Cluster c : this.markerClusters.find( level, g2.getClipBounds() ) ) {
+               final int size = c.getSize( level );
+               g2.setColor( BWMap.getFillColor( c.getAverage() ) );
+               g2.fillOval( c.getCenterX() - size / 2, c.getCenterY() - size / 2, size, size );
+               g2.setColor( Color.BLACK );
+               g2.drawOval( c.getCenterX() - size / 2, c.getCenterY() - size / 2, size, size );
+               // average ppp, the same value the fill color stands for; the number of plants is in the tooltip
+               final String label = String.valueOf( Math.round( c.getAverage() ) );
+               g2.drawString( label, c.getCenterX() - g2.getFontMetrics().stringWidth( label ) / 2, c.getCenterY() + g2.getFontMetrics().getAscent() / 2 - 1 );
+            }
+         } else {
+            for ( MapMarker m : this.getVisibleMarkers( g2.getClipBounds() ) ) {
+               g2.setColor( m.fillColor );
+               g2.fillRect( m.mapX - 10, m.mapY - 10, 20, 20 );
+               g2.setColor( Color.BLACK );
+               g2.drawRect( m.mapX - 10, m.mapY - 10, 20, 20 );
+            }
+         }
+
+         // alerts stay visible when their marker is part of a cluster
+         g2.setColor( Color.RED );
+         final Rectangle clip = g2.getClipBounds();
+         for ( MapMarker m : this.alertedMarkers ) {
+            if ( clip == null || clip.intersects( m.mapX - BWMap.MARKER_REACH, m.mapY - BWMap.MARKER_REACH, 2 * BWMap.MARKER_REACH, 2 * BWMap.MARKER_REACH ) ) {
+               g2.drawOval( m.mapX - 16, m.mapY - 16, 32, 32 );
+            }
+         }
+
+         if ( this.selection != null ) {
+            g2.setColor( BWMap.SELECTION_FILL );
+            g2.fill( this.selection );
+            g2.setStroke( BWMap.LEGEND_DRAW_STROKE );
+            g2.setColor( Color.BLUE );
+            g2.draw( this.selection );
+         }
+
+         g2.setStroke( originalStroke );
+         g2.setTransform( originalTransform );
+      }
+      this.paintTime.recordSince( start );
+	}
+
+   /**
+    * Render border, enclave, lake and legend into an image of the current size
+    * 
+    * @return rendered image
+    */
+   private BufferedImage renderBaseLayer() {
+      final int width = Math.max( 1, this.getWidth() );
+      final int height = Math.max( 1, this.getHeight() );
+      final GraphicsConfiguration gc = this.getGraphicsConfiguration();
+      final BufferedImage image = gc != null ? gc.createCompatibleImage( width, height ) : new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+
+      final Graphics2D g2 = image.createGraphics();
+      try {
+         g2.setColor( this.getBackground() );
+         g2.fillRect( 0, 0, width, height );
+
+         // make it a little bit prettier :-)
+         g2.setRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON );
+         g2.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+         g2.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+
          // centered and scaled according to available space
          g2.transform( this.mapTransform );
 
@@ -230,28 +547,113 @@ public class BWMap extends JPanel {
          g2.setColor( Color.BLUE );
          g2.drawPolygon( BWMap.X_VALS[BWMap.IDX_LAKE_CONSTANCE], BWMap.Y_VALS[BWMap.IDX_LAKE_CONSTANCE], BWMap.X_VALS[BWMap.IDX_LAKE_CONSTANCE].length );
 
-         for ( MapMarker m : this.markers ) {
-            g2.setColor( m.fillColor );
-            g2.fillRect( m.mapX - 10, m.mapY - 10, 20, 20 );
-            g2.setColor( Color.BLACK );
-            g2.drawRect( m.mapX - 10, m.mapY - 10, 20, 20 );
-         }
-         
+         // legend is part of the base layer, so markers in its area are drawn on top of it
          g2.setStroke( BWMap.LEGEND_DRAW_STROKE );
          g2.setPaint( BWMap.LEGEND_PAINT );
          g2.fillRect( BWMap.LEGEND_AREA.x, BWMap.LEGEND_AREA.y, BWMap.LEGEND_AREA.width, BWMap.LEGEND_AREA.height );
          g2.setPaint( Color.BLACK );
          g2.drawRect( BWMap.LEGEND_AREA.x, BWMap.LEGEND_AREA.y, BWMap.LEGEND_AREA.width, BWMap.LEGEND_AREA.height );
 
-         g2.setFont( new Font( Font.DIALOG, Font.PLAIN, 18 ) );
+         g2.setFont( BWMap.LEGEND_FONT );
          g2.drawString( "0 ppp", BWMap.LEGEND_AREA.x, BWMap.LEGEND_AREA.y - 10 );
          g2.drawString( ">" + (int) MapMarker.MAX_PPP + " ppp", BWMap.LEGEND_AREA.x - 15, BWMap.LEGEND_AREA.y + BWMap.LEGEND_AREA.height + 20 );
+      } finally {
+         g2.dispose();
+      }
+      return image;
+   }
 
-         g2.setStroke( originalStroke );
-         g2.setTransform( originalTransform );
+   /**
+    * Enable or disable clustering of markers
+    * 
+    * @param clusteringEnabled
+    *           <code>true</code> to combine markers into clusters when there are too many of them
+    */
+   public void setClusteringEnabled( boolean clusteringEnabled ) {
+      this.clusteringEnabled = clusteringEnabled;
+      this.repaint();
+   }
+
+   /**
+    * Show or hide the heatmap below the markers
+    * 
+    * @param heatmapEnabled
+    *           <code>true</code> to show the heatmap
+    */
+   public void setHeatmapEnabled( boolean heatmapEnabled ) {
+      this.heatmapEnabled = heatmapEnabled;
+      this.repaint();
+   }
+
+   /**
+    * Get level of detail to draw. Level 0 draws every marker, higher levels combine the markers of
+    * ever larger cells. The lowest level is chosen whose number of clusters fits into the available space.
+    * 
+    * @return level of detail
+    */
+   private int getClusterLevel() {
+      if ( !this.clusteringEnabled ) {
+         return 0;
       }
-	}
-	
+      final int budget = Math.max( 1, (this.getWidth() * this.getHeight()) / (BWMap.CLUSTER_PIXEL_SIZE * BWMap.CLUSTER_PIXEL_SIZE) );
+      return this.markerClusters.selectLevel( budget, this.markers.size() );
+   }
+
+   /**
+    * Get fill color for a value: value=0 -> green, value >= {@link MapMarker#MAX_PPP} -> red
+    * 
+    * @param value
+    *           total ppp
+    * @return fill color
+    */
+   private static Color getFillColor( double value ) {
+      float red = 0;
+      if ( value > 0 ) {
+         if ( value >= MapMarker.MAX_PPP ) {
+            red = 1;
+         } else {
+            red = (float) (value / MapMarker.MAX_PPP);
+         }
+      }
+      return new Color( red, 1 - red, 0 );
+   }
+
+   /**
+    * Repaint only the area of a marker
+    * 
+    * @param m
+    *           marker to repaint
+    */
+   private void repaintMarker( MapMarker m ) {
+      // a cluster covers many markers and changes its size, not worth calculating
+      if ( this.mapTransform == null || this.getClusterLevel() > 0 ) {
+         this.repaint();
+         return;
+      }
+      // the heatmap changes within its radius
+      final int reach = this.heatmapEnabled ? (int) Math.ceil( Heatmap.RADIUS ) : BWMap.MARKER_REACH;
+      final Rectangle area = new Rectangle( m.mapX - reach, m.mapY - reach, 2 * reach, 2 * reach );
+      final Rectangle bounds = this.mapTransform.createTransformedShape( area ).getBounds();
+      bounds.grow( 1, 1 );
+      this.repaint( bounds );
+   }
+
+   /**
+    * Get markers intersecting the clip area in drawing order
+    * 
+    * @param clip
+    *           clip area (in original coordinate space), <code>null</code> for everything
+    * @return visible markers, ordered by creation
+    */
+   private List<MapMarker> getVisibleMarkers( Rectangle clip ) {
+      if ( clip == null || clip.contains( 0, 0, (int) BWMap.MAP_REF_WIDTH, (int) BWMap.MAP_REF_HEIGHT ) ) {
+         return this.markers;
+      }
+      final List<MapMarker> visible = this.markerGrid.find( clip );
+      visible.sort( ( a, b ) -> Integer.compare( a.order, b.order ) );
+      return visible;
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -262,12 +664,16 @@ public class BWMap extends JPanel {
          final Point2D dst = new Point2D.Double();
          this.mapTransform.inverseTransform( event.getPoint(), dst );
 
-         // search markers backwards (later markers are drawn on top!)
-         for ( int i = this.markers.size() - 1; i >= 0; i-- ) {
-            MapMarker m = this.markers.get( i );
-            if ( m.markerAreaContains( dst ) ) {
-               return m.getTitle();
-            }
+         final int level = this.getClusterLevel();
+         if ( level > 0 ) {
+            final Cluster c = this.markerClusters.findAt( level, dst );
+            return c != null ? c.getTitle() : null;
+         }
+
+         // later markers are drawn on top!
+         final MapMarker m = this.markerGrid.findTopmost( dst );
+         if ( m != null ) {
+            return m.getTitle();
          }
       } catch ( NoninvertibleTransformException e ) {
       }
@@ -316,15 +722,26 @@ public class BWMap extends JPanel {
        */
       private int value;
 
+      /**
+       * Position in drawing order
+       */
+      private int order;
+
+      /**
+       * Flag if an alert is active for the item
+       */
+      private boolean alerted;
+
       /**
        * Create map marker
        * 
        * @param loc
        *           location object
        */
-      public MapMarker( MapItem item, int value ) {
+      public MapMarker( MapItem item, int value, int order ) {
 			super();
 			this.item = item;
+         this.order = order;
          this.setValue( value );
 			this.mapY = this.getMapY(item);
 			this.mapX = this.getMapX(item);
@@ -376,7 +793,7 @@ public class BWMap extends JPanel {
        * @see MapItem#getTitle()
        */
       public String getTitle() {
-         return this.item.getTitle() + ", " + this.value + "ppp total";
+         return this.item.getTitle() + ", " + this.value + "ppp total" + (this.alerted ? ", ALERT" : "");
 		}
 		
       /**
@@ -386,18 +803,768 @@ public class BWMap extends JPanel {
        *           value to set
        */
       public void setValue( int value ) {
-         // value=0 -> green, value >= 500 -> red
-         float red = 0;
-         if ( value > 0 ) {
-            if ( value >= MapMarker.MAX_PPP ) {
-               red = 1;
-            } else {
-               red = value / MapMarker.MAX_PPP;
+         this.fillColor = BWMap.getFillColor( value );
+         this.value = value;
+      }
+	}
+	
+   /**
+    * Uniform grid over the original coordinate space. A marker is put into the cell of its top left corner.
+    * As cells are exactly as large as markers, a point can only be covered by markers of its own cell and of
+    * the cells to the left and above.
+    */
+   private static class MarkerGrid {
+      /**
+       * Number of columns
+       */
+      private final static int COLUMNS = (int) Math.ceil( BWMap.MAP_REF_WIDTH / BWMap.MAP_MARKER_SIZE );
+
+      /**
+       * Number of rows
+       */
+      private final static int ROWS = (int) Math.ceil( BWMap.MAP_REF_HEIGHT / BWMap.MAP_MARKER_SIZE );
+
+      /**
+       * Cells (row major), created on demand
+       */
+      @SuppressWarnings( "unchecked" )
+      private final List<MapMarker>[] cells = (List<MapMarker>[]) new List<?>[MarkerGrid.COLUMNS * MarkerGrid.ROWS];
+
+      /**
+       * Add marker to its cell
+       * 
+       * @param m
+       *           marker to add
+       */
+      public void add( MapMarker m ) {
+         final int idx = MarkerGrid.row( m.mapY ) * MarkerGrid.COLUMNS + MarkerGrid.column( m.mapX );
+         if ( this.cells[idx] == null ) {
+            this.cells[idx] = new ArrayList<>( 2 );
+         }
+         this.cells[idx].add( m );
+      }
+
+      /**
+       * Find the marker drawn on top at a point
+       * 
+       * @param p
+       *           point (in original coordinate space)
+       * @return marker or <code>null</code> if there is none
+       */
+      public MapMarker findTopmost( Point2D p ) {
+         final int col = MarkerGrid.column( (int) Math.floor( p.getX() ) );
+         final int row = MarkerGrid.row( (int) Math.floor( p.getY() ) );
+         MapMarker found = null;
+         for ( int r = Math.max( 0, row - 1 ); r <= row; r++ ) {
+            for ( int c = Math.max( 0, col - 1 ); c <= col; c++ ) {
+               final List<MapMarker> cell = this.cells[r * MarkerGrid.COLUMNS + c];
+               if ( cell != null ) {
+                  for ( MapMarker m : cell ) {
+                     if ( m.markerAreaContains( p ) && ( found == null || m.order > found.order ) ) {
+                        found = m;
+                     }
+                  }
+               }
             }
          }
-         this.fillColor = new Color( red, 1 - red, 0 );
+         return found;
+      }
+
+      /**
+       * Find all markers drawn into an area
+       * 
+       * @param area
+       *           area (in original coordinate space)
+       * @return markers in no particular order
+       */
+      public List<MapMarker> find( Rectangle area ) {
+         final List<MapMarker> result = new ArrayList<>();
+         // markers are drawn around (mapX, mapY), so they reach into the area from every side
+         final int minCol = MarkerGrid.column( area.x - BWMap.MARKER_REACH );
+         final int maxCol = MarkerGrid.column( area.x + area.width + BWMap.MARKER_REACH );
+         final int minRow = MarkerGrid.row( area.y - BWMap.MARKER_REACH );
+         final int maxRow = MarkerGrid.row( area.y + area.height + BWMap.MARKER_REACH );
+         for ( int r = minRow; r <= maxRow; r++ ) {
+            for ( int c = minCol; c <= maxCol; c++ ) {
+               final List<MapMarker> cell = this.cells[r * MarkerGrid.COLUMNS + c];
+               if ( cell != null ) {
+                  result.addAll( cell );
+               }
+            }
+         }
+         return result;
+      }
+
+      /**
+       * Get column of x value, values outside the map are put into the border cells
+       */
+      private static int column( int x ) {
+         return Math.max( 0, Math.min( MarkerGrid.COLUMNS - 1, Math.floorDiv( x, BWMap.MAP_MARKER_SIZE ) ) );
+      }
+
+      /**
+       * Get row of y value, values outside the map are put into the border cells
+       */
+      private static int row( int y ) {
+         return Math.max( 0, Math.min( MarkerGrid.ROWS - 1, Math.floorDiv( y, BWMap.MAP_MARKER_SIZE ) ) );
+      }
+   }
+	
+   /**
+    * Cluster of markers within one cell of a level of detail
+    */
+   private static class Cluster {
+      /**
+       * Number of markers
+       */
+      private int count;
+
+      /**
+       * Sum of total ppp of all markers
+       */
+      private long sumValue;
+
+      /**
+       * Sum of marker x values (for centroid)
+       */
+      private long sumX;
+
+      /**
+       * Sum of marker y values (for centroid)
+       */
+      private long sumY;
+
+      /**
+       * Get x of the centroid of the markers
+       * 
+       * @return map x of center
+       */
+      public int getCenterX() {
+         return (int) (this.sumX / this.count);
+      }
+
+      /**
+       * Get y of the centroid of the markers
+       * 
+       * @return map y of center
+       */
+      public int getCenterY() {
+         return (int) (this.sumY / this.count);
+      }
+
+      /**
+       * Get average total ppp of the markers
+       * 
+       * @return average ppp
+       */
+      public double getAverage() {
+         return (double) this.sumValue / this.count;
+      }
+
+      /**
+       * Get diameter of cluster glyph, growing with the number of markers but never larger than the cell
+       * 
+       * @param level
+       *           level of detail
+       * @return diameter in original coordinate space
+       */
+      public int getSize( int level ) {
+         final int size = BWMap.MAP_MARKER_SIZE + 4 * (31 - Integer.numberOfLeadingZeros( this.count ));
+         return Math.min( size, BWMap.MAP_MARKER_SIZE << level );
+      }
+
+      /**
+       * Get title of cluster
+       * 
+       * @return title of cluster
+       */
+      public String getTitle() {
+         return this.count + " plants, " + this.sumValue + "ppp total, " + String.format( "%.1f", this.getAverage() ) + "ppp average";
+      }
+   }
+
+   /**
+    * Clusters of markers for several levels of detail. On level <i>l</i>, all markers whose center lies
+    * in the same cell of size {@link BWMap#MAP_MARKER_SIZE} * 2<sup><i>l</i></sup> are combined.
+    * All levels are kept up to date on every change, so drawing only depends on the number of clusters.
+    */
+   private static class MarkerClusters {
+      /**
+       * Highest level of detail
+       */
+      private final static int LEVELS = 6;
+
+      /**
+       * Clusters per level (row major, created on demand), index 0 is unused
+       */
+      private final Cluster[][] cells = new Cluster[MarkerClusters.LEVELS + 1][];
+
+      /**
+       * Number of columns per level
+       */
+      private final int[] columns = new int[MarkerClusters.LEVELS + 1];
+
+      /**
+       * Number of rows per level
+       */
+      private final int[] rows = new int[MarkerClusters.LEVELS + 1];
+
+      /**
+       * Number of non-empty clusters per level
+       */
+      private final int[] occupied = new int[MarkerClusters.LEVELS + 1];
+
+      /**
+       * Create empty clusters
+       */
+      public MarkerClusters() {
+         for ( int l = 1; l <= MarkerClusters.LEVELS; l++ ) {
+            this.columns[l] = (int) Math.ceil( BWMap.MAP_REF_WIDTH / (BWMap.MAP_MARKER_SIZE << l) );
+            this.rows[l] = (int) Math.ceil( BWMap.MAP_REF_HEIGHT / (BWMap.MAP_MARKER_SIZE << l) );
+            this.cells[l] = new Cluster[this.columns[l] * this.rows[l]];
+         }
+      }
+
+      /**
+       * Add new marker to its cluster on every level
+       * 
+       * @param m
+       *           marker to add
+       */
+      public void add( MapMarker m ) {
+         for ( int l = 1; l <= MarkerClusters.LEVELS; l++ ) {
+            final int idx = this.index( l, m.mapX, m.mapY );
+            Cluster c = this.cells[l][idx];
+            if ( c == null ) {
+               c = new Cluster();
+               this.cells[l][idx] = c;
+               this.occupied[l]++;
+            }
+            c.count++;
+            c.sumValue += m.value;
+            c.sumX += m.mapX;
+            c.sumY += m.mapY;
+         }
+      }
+
+      /**
+       * Update clusters of a marker whose value changed
+       * 
+       * @param m
+       *           changed marker
+       * @param oldValue
+       *           value before the change
+       */
+      public void update( MapMarker m, int oldValue ) {
+         for ( int l = 1; l <= MarkerClusters.LEVELS; l++ ) {
+            this.cells[l][this.index( l, m.mapX, m.mapY )].sumValue += m.value - oldValue;
+         }
+      }
+
+      /**
+       * Choose the lowest level that does not have more clusters than allowed
+       * 
+       * @param budget
+       *           max number of clusters
+       * @param markerCount
+       *           number of markers (clusters of level 0)
+       * @return level of detail
+       */
+      public int selectLevel( int budget, int markerCount ) {
+         if ( markerCount <= budget ) {
+            return 0;
+         }
+         for ( int l = 1; l < MarkerClusters.LEVELS; l++ ) {
+            if ( this.occupied[l] <= budget ) {
+               return l;
+            }
+         }
+         return MarkerClusters.LEVELS;
+      }
+
+      /**
+       * Find all clusters of a level whose cell intersects an area
+       * 
+       * @param level
+       *           level of detail
+       * @param area
+       *           area (in original coordinate space), <code>null</code> for everything
+       * @return clusters in no particular order
+       */
+      public List<Cluster> find( int level, Rectangle area ) {
+         final List<Cluster> result = new ArrayList<>();
+         final int size = BWMap.MAP_MARKER_SIZE << level;
+         final int minCol = area == null ? 0 : this.column( level, area.x - size );
+         final int maxCol = area == null ? this.columns[level] - 1 : this.column( level, area.x + area.width + size );
+         final int minRow = area == null ? 0 : this.row( level, area.y - size );
+         final int maxRow = area == null ? this.rows[level] - 1 : this.row( level, area.y + area.height + size );
+         for ( int r = minRow; r <= maxRow; r++ ) {
+            for ( int c = minCol; c <= maxCol; c++ ) {
+               final Cluster cluster = this.cells[level][r * this.columns[level] + c];
+               if ( cluster != null ) {
+                  result.add( cluster );
+               }
+            }
+         }
+         return result;
+      }
+
+      /**
+       * Find the cluster whose glyph covers a point
+       * 
+       * @param level
+       *           level of detail
+       * @param p
+       *           point (in original coordinate space)
+       * @return cluster or <code>null</code> if there is none
+       */
+      public Cluster findAt( int level, Point2D p ) {
+         final Rectangle area = new Rectangle( (int) Math.floor( p.getX() ), (int) Math.floor( p.getY() ), 1, 1 );
+         for ( Cluster c : this.find( level, area ) ) {
+            final double radius = c.getSize( level ) / 2.0;
+            if ( p.distanceSq( c.getCenterX(), c.getCenterY() ) <= radius * radius ) {
+               return c;
+            }
+         }
+         return null;
+      }
+
+      /**
+       * Get cell index of a point, points outside the map are put into the border cells
+       */
+      private int index( int level, int x, int y ) {
+         return this.row( level, y ) * this.columns[level] + this.column( level, x );
+      }
+
+      /**
+       * Get column of x value on a level
+       */
+      private int column( int level, int x ) {
+         return Math.max( 0, Math.min( this.columns[level] - 1, Math.floorDiv( x, BWMap.MAP_MARKER_SIZE << level ) ) );
+      }
+
+      /**
+       * Get row of y value on a level
+       */
+      private int row( int level, int y ) {
+         return Math.max( 0, Math.min( this.rows[level] - 1, Math.floorDiv( y, BWMap.MAP_MARKER_SIZE << level ) ) );
+      }
+   }
+
+   /**
+    * Interpolated surface of the marker values, clipped to the border of BW.
+    * <p>
+    * The value of every cell is the inverse distance weighted mean of the markers within {@link #RADIUS}, each
+    * weighted by {@link MapItem#getWeight()} (population). The surface is rasterized in tiles, which are
+    * rendered in parallel and cached; a changed marker only invalidates the tiles within its radius. Pixels outside
+    * the border (and enclave) stay transparent.
+    * <p>
+    * Tiles are rendered in the background from a copy of the marker samples, so painting never waits for them.
+    * Finished tiles are swapped in on the EDT, which then repaints; until then the previous tiles are shown.
+    */
+   private static class Heatmap {
+      /**
+       * Edge length of a heatmap pixel (in original coordinate space)
+       */
+      private final static int CELL_SIZE = 4;
+
+      /**
+       * Edge length of a tile in heatmap pixels
+       */
+      private final static int TILE_CELLS = 32;
+
+      /**
+       * Edge length of a tile (in original coordinate space)
+       */
+      private final static int TILE_SIZE = Heatmap.CELL_SIZE * Heatmap.TILE_CELLS;
+
+      /**
+       * Markers further away do not influence a point
+       */
+      private final static double RADIUS = 100;
+
+      /**
+       * Opacity of the surface where it is fully covered
+       */
+      private final static int ALPHA = 160;
+
+      private final static int COLUMNS = (int) Math.ceil( BWMap.MAP_REF_WIDTH / Heatmap.TILE_SIZE );
+
+      private final static int ROWS = (int) Math.ceil( BWMap.MAP_REF_HEIGHT / Heatmap.TILE_SIZE );
+
+      /**
+       * Border and enclave of BW
+       */
+      private final Area clip = new Area();
+
+      /**
+       * Rendered tiles, row by row; <code>null</code> for tiles outside of BW
+       */
+      private final BufferedImage[] tiles = new BufferedImage[Heatmap.COLUMNS * Heatmap.ROWS];
+
+      /**
+       * Tiles to render before the next paint
+       */
+      private final boolean[] dirty = new boolean[Heatmap.COLUMNS * Heatmap.ROWS];
+
+      /**
+       * Tiles intersecting BW, all others are never rendered
+       */
+      private final boolean[] inside = new boolean[Heatmap.COLUMNS * Heatmap.ROWS];
+
+      /**
+       * Per tile, which of its pixels lie inside BW; calculated on first render of the tile. Clipping while
+       * drawing would be exact, but is far too slow for the complex border.
+       */
+      private final boolean[][] masks = new boolean[Heatmap.COLUMNS * Heatmap.ROWS][];
+
+      /**
+       * Tiles scaled to the component, so painting is a single unscaled blit
+       */
+      private BufferedImage layer;
+
+      /**
+       * Transformation the layer was drawn with
+       */
+      private AffineTransform layerTransform;
+
+      /**
+       * Tiles rendered since they were last drawn into the layer
+       */
+      private final boolean[] stale = new boolean[Heatmap.COLUMNS * Heatmap.ROWS];
+
+      /**
+       * Positions, values and weights of the markers by their order, kept up to date on the EDT
+       */
+      private double[] sampleX = new double[16];
+      private double[] sampleY = new double[16];
+      private double[] sampleValue = new double[16];
+      private double[] sampleWeight = new double[16];
+      private int sampleCount = 0;
+
+      /**
+       * Flag if tiles are rendered in the background, further dirty tiles wait for the next paint after it
+       */
+      private boolean rendering = false;
+
+      /**
+       * Called on the EDT when rendered tiles were swapped in
+       */
+      private final Runnable onRendered;
+
+      public Heatmap( Runnable onRendered ) {
+         this.onRendered = onRendered;
+         this.clip.add( new Area( new Polygon( BWMap.X_VALS[BWMap.IDX_BORDER], BWMap.Y_VALS[BWMap.IDX_BORDER], BWMap.X_VALS[BWMap.IDX_BORDER].length ) ) );
+         this.clip.add( new Area( new Polygon( BWMap.X_VALS[BWMap.IDX_ENCLAVE], BWMap.Y_VALS[BWMap.IDX_ENCLAVE], BWMap.X_VALS[BWMap.IDX_ENCLAVE].length ) ) );
+         for ( int i = 0; i < this.tiles.length; i++ ) {
+            this.inside[i] = this.clip.intersects( Heatmap.tileBounds( i ) );
+            this.dirty[i] = this.inside[i];
+         }
+      }
+
+      /**
+       * Take over the value of a new or changed marker and mark the tiles it influences as dirty
+       * 
+       * @param m
+       *           marker
+       */
+      public void update( MapMarker m ) {
+         if ( m.order >= this.sampleX.length ) {
+            final int length = Math.max( m.order + 1, this.sampleX.length * 2 );
+            this.sampleX = Arrays.copyOf( this.sampleX, length );
+            this.sampleY = Arrays.copyOf( this.sampleY, length );
+            this.sampleValue = Arrays.copyOf( this.sampleValue, length );
+            this.sampleWeight = Arrays.copyOf( this.sampleWeight, length );
+         }
+         this.sampleX[m.order] = m.mapX;
+         this.sampleY[m.order] = m.mapY;
+         this.sampleValue[m.order] = m.value;
+         this.sampleWeight[m.order] = Math.max( 0, m.item.getWeight() );
+         this.sampleCount = Math.max( this.sampleCount, m.order + 1 );
+         this.invalidate( m.mapX, m.mapY );
+      }
+
+      /**
+       * Mark the tiles influenced by a marker at a point as dirty
+       * 
+       * @param x
+       *           x of the marker center (in original coordinate space)
+       * @param y
+       *           y of the marker center (in original coordinate space)
+       */
+      public void invalidate( int x, int y ) {
+         final int minCol = Math.max( 0, (int) Math.floor( (x - Heatmap.RADIUS) / Heatmap.TILE_SIZE ) );
+         final int maxCol = Math.min( Heatmap.COLUMNS - 1, (int) Math.floor( (x + Heatmap.RADIUS) / Heatmap.TILE_SIZE ) );
+         final int minRow = Math.max( 0, (int) Math.floor( (y - Heatmap.RADIUS) / Heatmap.TILE_SIZE ) );
+         final int maxRow = Math.min( Heatmap.ROWS - 1, (int) Math.floor( (y + Heatmap.RADIUS) / Heatmap.TILE_SIZE ) );
+         for ( int r = minRow; r <= maxRow; r++ ) {
+            for ( int c = minCol; c <= maxCol; c++ ) {
+               final int i = r * Heatmap.COLUMNS + c;
+               this.dirty[i] = this.inside[i];
+            }
+         }
+      }
+
+      /**
+       * Start rendering all dirty tiles in the background, in parallel. Returns at once, the tiles are swapped in
+       * later on the EDT.
+       */
+      public void render() {
+         if ( this.rendering ) {
+            return;
+         }
+         final int[] dirtyTiles = new int[this.tiles.length];
+         int count = 0;
+         for ( int i = 0; i < this.tiles.length; i++ ) {
+            if ( this.dirty[i] ) {
+               dirtyTiles[count++] = i;
+               this.dirty[i] = false;
+            }
+         }
+         if ( count == 0 ) {
+            return;
+         }
+         final int[] renderTiles = Arrays.copyOf( dirtyTiles, count );
+         final int n = this.sampleCount;
+         final double[] x = Arrays.copyOf( this.sampleX, n );
+         final double[] y = Arrays.copyOf( this.sampleY, n );
+         final double[] value = Arrays.copyOf( this.sampleValue, n );
+         final double[] weight = Arrays.copyOf( this.sampleWeight, n );
+         final BufferedImage[] rendered = new BufferedImage[count];
+         this.rendering = true;
+         ForkJoinPool.commonPool().execute( () -> {
+            try {
+               new RenderTask( this, new Samples( x, y, value, weight ), renderTiles, rendered, 0, renderTiles.length ).invoke();
+            } finally {
+               SwingUtilities.invokeLater( () -> this.swap( renderTiles, rendered ) );
+            }
+         } );
+      }
+
+      /**
+       * Take over rendered tiles, tiles that failed to render keep their previous image
+       */
+      private void swap( int[] renderTiles, BufferedImage[] rendered ) {
+         for ( int i = 0; i < renderTiles.length; i++ ) {
+            if ( rendered[i] != null ) {
+               this.tiles[renderTiles[i]] = rendered[i];
+               this.stale[renderTiles[i]] = true;
+            }
+         }
+         this.rendering = false;
+         this.onRendered.run();
+      }
+
+      /**
+       * Draw the heatmap, only tiles rendered since the last call are scaled again
+       * 
+       * @param g2
+       *           graphics of the component (not transformed)
+       * @param transform
+       *           transformation from original coordinate space to the component
+       * @param width
+       *           width of the component
+       * @param height
+       *           height of the component
+       */
+      public void paint( Graphics2D g2, AffineTransform transform, int width, int height ) {
+         if ( this.layer == null || this.layer.getWidth() != width || this.layer.getHeight() != height || !transform.equals( this.layerTransform ) ) {
+            this.layer = new BufferedImage( Math.max( 1, width ), Math.max( 1, height ), BufferedImage.TYPE_INT_ARGB );
+            this.layerTransform = new AffineTransform( transform );
+            Arrays.fill( this.stale, true );
+         }
+
+         final Graphics2D lg = this.layer.createGraphics();
+         try {
+            lg.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+            lg.setComposite( AlphaComposite.Src );
+            lg.transform( transform );
+            for ( int i = 0; i < this.tiles.length; i++ ) {
+               if ( this.stale[i] && this.tiles[i] != null ) {
+                  final Rectangle bounds = Heatmap.tileBounds( i );
+                  lg.drawImage( this.tiles[i], bounds.x, bounds.y, bounds.width, bounds.height, null );
+               }
+               this.stale[i] = false;
+            }
+         } finally {
+            lg.dispose();
+         }
+         g2.drawImage( this.layer, 0, 0, null );
+      }
+
+      /**
+       * Get the pixels of a tile inside BW
+       */
+      private boolean[] mask( int tile ) {
+         if ( this.masks[tile] == null ) {
+            final Rectangle bounds = Heatmap.tileBounds( tile );
+            final boolean[] mask = new boolean[Heatmap.TILE_CELLS * Heatmap.TILE_CELLS];
+            for ( int cy = 0; cy < Heatmap.TILE_CELLS; cy++ ) {
+               for ( int cx = 0; cx < Heatmap.TILE_CELLS; cx++ ) {
+                  mask[cy * Heatmap.TILE_CELLS + cx] = this.clip.contains( bounds.x + (cx + 0.5) * Heatmap.CELL_SIZE, bounds.y + (cy + 0.5) * Heatmap.CELL_SIZE );
+               }
+            }
+            this.masks[tile] = mask;
+         }
+         return this.masks[tile];
+      }
+
+      /**
+       * Interpolate one tile
+       * 
+       * @return image of the tile
+       */
+      private BufferedImage renderTile( int tile, Samples samples ) {
+         final Rectangle bounds = Heatmap.tileBounds( tile );
+         final int[] near = samples.find( bounds, Heatmap.RADIUS );
+         final boolean[] mask = this.mask( tile );
+         final int[] argb = new int[Heatmap.TILE_CELLS * Heatmap.TILE_CELLS];
+         final double radiusSq = Heatmap.RADIUS * Heatmap.RADIUS;
+         for ( int cy = 0; cy < Heatmap.TILE_CELLS; cy++ ) {
+            final double y = bounds.y + (cy + 0.5) * Heatmap.CELL_SIZE;
+            for ( int cx = 0; cx < Heatmap.TILE_CELLS; cx++ ) {
+               if ( !mask[cy * Heatmap.TILE_CELLS + cx] ) {
+                  continue;
+               }
+               final double x = bounds.x + (cx + 0.5) * Heatmap.CELL_SIZE;
+               double weightedSum = 0;
+               double weights = 0;
+               double coverage = 0;
+               for ( int j : near ) {
+                  final double dx = samples.x[j] - x;
+                  final double dy = samples.y[j] - y;
+                  final double distanceSq = dx * dx + dy * dy;
+                  if ( distanceSq < radiusSq ) {
+                     // inverse distance weighting, faded out towards the radius to avoid visible edges
+                     final double falloff = 1 - distanceSq / radiusSq;
+                     final double w = samples.weight[j] * falloff * falloff / (distanceSq + Heatmap.CELL_SIZE * Heatmap.CELL_SIZE);
+                     weightedSum += w * samples.value[j];
+                     weights += w;
+                     coverage = Math.max( coverage, falloff );
+                  }
+               }
+               if ( weights > 0 ) {
+                  final int alpha = (int) (Heatmap.ALPHA * Math.min( 1, 2 * coverage ));
+                  argb[cy * Heatmap.TILE_CELLS + cx] = alpha << 24 | (BWMap.getFillColor( weightedSum / weights ).getRGB() & 0xFFFFFF);
+               }
+            }
+         }
+         final BufferedImage image = new BufferedImage( Heatmap.TILE_CELLS, Heatmap.TILE_CELLS, BufferedImage.TYPE_INT_ARGB );
+         image.setRGB( 0, 0, Heatmap.TILE_CELLS, Heatmap.TILE_CELLS, argb, 0, Heatmap.TILE_CELLS );
+         return image;
+      }
+
+      /**
+       * Get area of a tile (in original coordinate space)
+       */
+      private static Rectangle tileBounds( int tile ) {
+         return new Rectangle( (tile % Heatmap.COLUMNS) * Heatmap.TILE_SIZE, (tile / Heatmap.COLUMNS) * Heatmap.TILE_SIZE, Heatmap.TILE_SIZE, Heatmap.TILE_SIZE );
+      }
+   }
+
+   /**
+    * Renders a range of tiles, splitting it until single tiles are left
+    */
+   @SuppressWarnings("serial")
+   private static class RenderTask extends RecursiveAction {
+      private final Heatmap heatmap;
+      private final Samples samples;
+      private final int[] tiles;
+      private final BufferedImage[] rendered;
+      private final int from;
+      private final int to;
+
+      public RenderTask( Heatmap heatmap, Samples samples, int[] tiles, BufferedImage[] rendered, int from, int to ) {
+         this.heatmap = heatmap;
+         this.samples = samples;
+         this.tiles = tiles;
+         this.rendered = rendered;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if ( this.to - this.from == 1 ) {
+            this.rendered[this.from] = this.heatmap.renderTile( this.tiles[this.from], this.samples );
+            return;
+         }
+         final int middle = (this.from + this.to) >>> 1;
+         ForkJoinTask.invokeAll( new RenderTask( this.heatmap, this.samples, this.tiles, this.rendered, this.from, middle ),
+               new RenderTask( this.heatmap, this.samples, this.tiles, this.rendered, middle, this.to ) );
+      }
+   }
+
+   /**
+    * Marker positions, values and weights, with a grid to find the markers near an area
+    */
+   private static class Samples {
+      private final double[] x;
+      private final double[] y;
+      private final double[] value;
+      private final double[] weight;
+
+      /**
+       * Markers by cell of {@link Heatmap#RADIUS} size: first marker of each cell and next marker of each marker,
+       * <code>-1</code> ends a list
+       */
+      private final int[] first;
+      private final int[] next;
+      private final int columns;
+      private final int rows;
+
+      public Samples( double[] x, double[] y, double[] value, double[] weight ) {
+         final int n = x.length;
+         this.x = x;
+         this.y = y;
          this.value = value;
+         this.weight = weight;
+         this.next = new int[n];
+         this.columns = (int) Math.ceil( BWMap.MAP_REF_WIDTH / Heatmap.RADIUS );
+         this.rows = (int) Math.ceil( BWMap.MAP_REF_HEIGHT / Heatmap.RADIUS );
+         this.first = new int[this.columns * this.rows];
+         Arrays.fill( this.first, -1 );
+         for ( int i = 0; i < n; i++ ) {
+            final int cell = this.row( this.y[i] ) * this.columns + this.column( this.x[i] );
+            this.next[i] = this.first[cell];
+            this.first[cell] = i;
+         }
       }
-	}
+
+      /**
+       * Find markers that may be closer than a distance to an area
+       * 
+       * @return indices of the markers
+       */
+      public int[] find( Rectangle area, double distance ) {
+         int[] result = new int[16];
+         int count = 0;
+         for ( int r = this.row( area.getMinY() - distance ); r <= this.row( area.getMaxY() + distance ); r++ ) {
+            for ( int c = this.column( area.getMinX() - distance ); c <= this.column( area.getMaxX() + distance ); c++ ) {
+               for ( int i = this.first[r * this.columns + c]; i >= 0; i = this.next[i] ) {
+                  if ( count == result.length ) {
+                     result = Arrays.copyOf( result, count * 2 );
+                  }
+                  result[count++] = i;
+               }
+            }
+         }
+         return Arrays.copyOf( result, count );
+      }
+
+      /**
+       * Get column of x value, values outside the map are put into the border cells
+       */
+      private int column( double x ) {
+         return Math.max( 0, Math.min( this.columns - 1, (int) Math.floor( x / Heatmap.RADIUS ) ) );
+      }
+
+      /**
+       * Get row of y value, values outside the map are put into the border cells
+       */
+      private int row( double y ) {
+         return Math.max( 0, Math.min( this.rows - 1, (int) Math.floor( y / Heatmap.RADIUS ) ) );
+      }
+   }
 	
 }
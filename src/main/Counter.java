@@ -0,0 +1,26 @@
+package main;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count that many threads may increment without contending on a single variable.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class Counter implements CounterMXBean {
+
+	private final LongAdder count = new LongAdder();
+
+	public void increment() {
+		this.count.increment();
+	}
+
+	public void add(long n) {
+		this.count.add(n);
+	}
+
+	@Override
+	public long getCount() {
+		return this.count.sum();
+	}
+}
@@ -0,0 +1,10 @@
+package main;
+
+/**
+ * JMX view of a {@link Counter}.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public interface CounterMXBean {
+	long getCount();
+}
@@ -0,0 +1,164 @@
+package main;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Distribution of the latest measurement of every plant: a {@link QuantileSketch} per variant and region, plus
+ * the population-weighted mean.
+ * <p>
+ * Updates only lock the region of the plant, state-wide figures are obtained by merging the regions.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class DistributionStats {
+
+	/**
+	 * Figures of one variant
+	 */
+	public static class Summary {
+		private final long count;
+		private final double median;
+		private final double p90;
+		private final double p99;
+		private final double min;
+		private final double max;
+		private final double weightedMean;
+
+		private Summary(QuantileSketch sketch, double weightedMean) {
+			this.count = sketch.getCount();
+			this.median = sketch.getQuantile(0.5);
+			this.p90 = sketch.getQuantile(0.9);
+			this.p99 = sketch.getQuantile(0.99);
+			this.min = sketch.getMin();
+			this.max = sketch.getMax();
+			this.weightedMean = weightedMean;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMedian() {
+			return median;
+		}
+
+		public double getP90() {
+			return p90;
+		}
+
+		public double getP99() {
+			return p99;
+		}
+
+		public double getMin() {
+			return min;
+		}
+
+		public double getMax() {
+			return max;
+		}
+
+		/**
+		 * @return mean of the values weighted by the population of their plants
+		 */
+		public double getWeightedMean() {
+			return weightedMean;
+		}
+	}
+
+	private static class RegionStats {
+		private QuantileSketch[] sketches = new QuantileSketch[0];
+		private long[] weightedSums = new long[0];
+		private long plants = 0;
+		private long population = 0;
+
+		RegionStats() {
+			this.grow(VariantRegistry.getDefault().size());
+		}
+
+		/**
+		 * Add sketches for variants registered later, the plants measured so far count with <code>0</code>
+		 */
+		private void grow(int variants) {
+			if (variants <= this.sketches.length) {
+				return;
+			}
+			int known = this.sketches.length;
+			this.sketches = Arrays.copyOf(this.sketches, variants);
+			this.weightedSums = Arrays.copyOf(this.weightedSums, variants);
+			for (int i = known; i < variants; i++) {
+				this.sketches[i] = new QuantileSketch();
+				this.sketches[i].add(0, this.plants);
+			}
+		}
+	}
+
+	private final Map<Region, RegionStats> regions = new EnumMap<>(Region.class);
+
+	public DistributionStats() {
+		for (Region r :
+				Region.values()) {
+			this.regions.put(r, new RegionStats());
+		}
+	}
+
+	/**
+	 * Replace the measurement of a plant.
+	 *
+	 * @param old  measurement previously stored for the plant, <code>null</code> if there was none
+	 * @param meas new measurement of the plant
+	 */
+	public void replace(VariantMeasurement old, VariantMeasurement meas) {
+		SewagePlant plant = meas.getPlant();
+		long population = plant.getPopulation();
+		RegionStats stats = this.regions.get(Region.of(plant));
+		synchronized (stats) {
+			stats.grow(Math.max(meas.getValueCount(), old == null ? 0 : old.getValueCount()));
+			if (old == null) {
+				stats.plants++;
+				stats.population += population;
+			}
+			for (int i = 0; i < stats.sketches.length; i++) {
+				if (old != null) {
+					stats.sketches[i].remove(old.getValue(i));
+					stats.weightedSums[i] -= old.getValue(i) * population;
+				}
+				stats.sketches[i].add(meas.getValue(i));
+				stats.weightedSums[i] += meas.getValue(i) * population;
+			}
+		}
+	}
+
+	/**
+	 * @return figures of a variant in a region
+	 */
+	public Summary getSummary(Variant v, Region region) {
+		RegionStats stats = this.regions.get(region);
+		synchronized (stats) {
+			stats.grow(v.getId() + 1);
+			return new Summary(stats.sketches[v.getId()],
+					stats.population == 0 ? 0 : (double) stats.weightedSums[v.getId()] / stats.population);
+		}
+	}
+
+	/**
+	 * @return figures of a variant in the whole state
+	 */
+	public Summary getSummary(Variant v) {
+		QuantileSketch merged = new QuantileSketch();
+		long weightedSum = 0;
+		long population = 0;
+		for (RegionStats stats :
+				this.regions.values()) {
+			synchronized (stats) {
+				stats.grow(v.getId() + 1);
+				merged.merge(stats.sketches[v.getId()]);
+				weightedSum += stats.weightedSums[v.getId()];
+				population += stats.population;
+			}
+		}
+		return new Summary(merged, population == 0 ? 0 : (double) weightedSum / population);
+	}
+}
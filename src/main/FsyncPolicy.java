@@ -0,0 +1,22 @@
+package main;
+
+/**
+ * When the {@link MeasurementJournal} forces written records to disk.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public enum FsyncPolicy {
+	/**
+	 * Force after every committed batch (group commit)
+	 */
+	ALWAYS,
+	/**
+	 * Force once per configured interval by a background thread while there are unforced records, a crash may
+	 * lose the last interval
+	 */
+	INTERVAL,
+	/**
+	 * Leave it to the operating system
+	 */
+	NEVER
+}
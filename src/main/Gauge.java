@@ -0,0 +1,29 @@
+package main;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Current value of something (e.g. a queue size), read only when the gauge is queried.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class Gauge implements GaugeMXBean {
+
+	private volatile LongSupplier source;
+
+	public Gauge(LongSupplier source) {
+		this.source = source;
+	}
+
+	/**
+	 * Read the value from somewhere else from now on, e.g. when the measured object was replaced
+	 */
+	public void setSource(LongSupplier source) {
+		this.source = source;
+	}
+
+	@Override
+	public long getValue() {
+		return this.source.getAsLong();
+	}
+}
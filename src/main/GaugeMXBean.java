@@ -0,0 +1,10 @@
+package main;
+
+/**
+ * JMX view of a {@link Gauge}.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public interface GaugeMXBean {
+	long getValue();
+}
@@ -0,0 +1,127 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values (usually latencies in nanoseconds) with a bounded relative error, in the
+ * manner of an HDR histogram.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} buckets of equal width, so a value is recorded with an
+ * error of at most 1/{@value #SUB_BUCKETS} of itself, and all of <code>long</code> fits into 1888 buckets.
+ * Recording takes a few bit operations and an atomic increment and does not allocate.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class Histogram implements HistogramMXBean {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value negative values are recorded as <code>0</code>
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		this.counts.incrementAndGet(Histogram.indexOf(value));
+		this.count.increment();
+		this.sum.add(value);
+		long current = this.max.get();
+		while (value > current && !this.max.compareAndSet(current, value)) {
+			current = this.max.get();
+		}
+	}
+
+	/**
+	 * Record the time since <code>startNanos</code> (a value of {@link System#nanoTime()})
+	 */
+	public void recordSince(long startNanos) {
+		this.record(System.nanoTime() - startNanos);
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// the highest bit selects the power of two, the following SUB_BUCKET_BITS bits the bucket within it
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * @return largest value recorded into the bucket
+	 */
+	private static long highestValueOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Concurrent recordings may or may not be included.
+	 *
+	 * @param q between 0 and 1
+	 * @return upper bound of the values in the quantile, <code>0</code> if nothing was recorded
+	 */
+	public long getQuantile(double q) {
+		long total = 0;
+		for (int i = 0; i < this.counts.length(); i++) {
+			total += this.counts.get(i);
+		}
+		long rank = Math.max(1, (long) Math.ceil(q * total));
+		long seen = 0;
+		for (int i = 0; i < this.counts.length(); i++) {
+			seen += this.counts.get(i);
+			if (seen >= rank) {
+				return Math.min(Histogram.highestValueOf(i), this.max.get());
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	@Override
+	public double getMean() {
+		long n = this.count.sum();
+		return n == 0 ? 0 : (double) this.sum.sum() / n;
+	}
+
+	@Override
+	public long getMax() {
+		return this.max.get();
+	}
+
+	@Override
+	public long get50thPercentile() {
+		return this.getQuantile(0.5);
+	}
+
+	@Override
+	public long get90thPercentile() {
+		return this.getQuantile(0.9);
+	}
+
+	@Override
+	public long get99thPercentile() {
+		return this.getQuantile(0.99);
+	}
+
+	@Override
+	public long get999thPercentile() {
+		return this.getQuantile(0.999);
+	}
+}
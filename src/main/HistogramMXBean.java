@@ -0,0 +1,22 @@
+package main;
+
+/**
+ * JMX view of a {@link Histogram}, percentiles are accurate to about 3%.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public interface HistogramMXBean {
+	long getCount();
+
+	double getMean();
+
+	long getMax();
+
+	long get50thPercentile();
+
+	long get90thPercentile();
+
+	long get99thPercentile();
+
+	long get999thPercentile();
+}
@@ -1,22 +1,117 @@
 package main;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Collection;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 
 public class KloaCov2 {
 
+	public static final String PLANTS_FILE = "plants.txt";
+	public static final String JOURNAL_DIRECTORY = "ppp-journal";
+	public static final String TEXT_LOG = "ppp-logs.txt";
+	public static final String SNAPSHOT_DIRECTORY = "ppp-snapshots";
+	public static final String ALERTS_FILE = "alerts.txt";
+
+	private static final Counter PLANT_PARSE_ERRORS = MetricsRegistry.getDefault().counter("plants.parseErrors");
+
 	public static void main(String[] args) {
 		try {
-			List<SewagePlant> plants = KloaCov2.loadPlants();
-			RKITerminal rki = new RKITerminal();
+			MetricsRegistry.getDefault().registerMBeans();
+			if (args.length > 0 && args[0].equals("--export-log")) {
+				boolean named = args.length > 1 && !args[1].startsWith("--");
+				KloaCov2.exportLog(named ? args[1] : "ppp-logs-export.txt",
+						KloaCov2.parseOptions(Arrays.copyOfRange(args, named ? 2 : 1, args.length)));
+				return;
+			}
+			if (args.length > 0 && args[0].equals("--simulate")) {
+				KloaCov2.simulate(Arrays.copyOfRange(args, 1, args.length));
+				return;
+			}
+			Map<String, String> options = KloaCov2.parseOptions(args);
+			if (options.containsKey("connect")) {
+				KloaCov2.connect(options.get("connect"));
+				return;
+			}
+
+			PlantRegistry registry = KloaCov2.loadRegistry();
+			List<SewagePlant> plants = KloaCov2.loadPlants(registry);
+			MeasurementJournal journal = new MeasurementJournal(Paths.get(JOURNAL_DIRECTORY), KloaCov2.retentionOf(options));
+			MeasurementStore store = new MeasurementStore(journal);
+			MeasurementIngestService ingest = new MeasurementIngestService(store);
+			RKITerminal rki = new RKITerminal(store);
+
+			SnapshotManager snapshots = new SnapshotManager(store, Paths.get(SNAPSHOT_DIRECTORY));
+			StateRecovery recovery = new StateRecovery(registry);
+			// alert baselines are not part of the snapshots, they are rebuilt from the journal behind the restored one
+			AlertEngine alerts = new AlertEngine(KloaCov2.loadAlertRules());
+			recovery.addReplayListener(alerts::train);
+			recovery.recover(store, Paths.get(TEXT_LOG), journal, snapshots);
+			if (recovery.getParseErrors() > 0) {
+				System.err.println("Skipped " + recovery.getParseErrors() + " unreadable lines in " + TEXT_LOG);
+			}
+
+			// history and rollups read their own time range from the journal
+			TimeSeriesStore history = new TimeSeriesStore(journal, registry::getPlant);
+			history.load();
+			RollupStore rollups = new RollupStore(journal, registry::getPlant);
+			rollups.load();
+
+			// registered after the recovery, so restored measurements are not added twice
+			store.addListener(history);
+			store.addListener(rollups);
+			rki.setHistory(history, rollups);
+			alerts.addListener(rki::showAlert);
+			if (options.containsKey("print-alerts")) {
+				alerts.addListener(System.out::println);
+			}
+			store.addListener(alerts);
+			alerts.start();
+			ingest.start();
+			snapshots.start();
+			MeasurementServer server = null;
+			if (options.containsKey("listen")) {
+				String port = options.get("listen");
+				server = new MeasurementServer(ingest, registry::getPlant,
+						new InetSocketAddress(port.isEmpty() ? MeasurementServer.DEFAULT_PORT : Integer.parseInt(port)));
+				server.start();
+				System.out.println("Listening for remote terminals on port " + server.getPort());
+			}
+			final MeasurementServer remoteTerminals = server;
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					if (remoteTerminals != null) {
+						remoteTerminals.close();
+					}
+					ingest.shutdown();
+					alerts.stop();
+					snapshots.stop();
+					snapshots.checkpoint();
+					journal.close();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}));
 			for (SewagePlant sp : plants) {
-				new SewageTerminal(sp, rki);
+				new SewageTerminal(sp, ingest);
 			}
 		} catch (Exception e) {
 			System.err.println("An error occured: " + e.getMessage());
@@ -24,19 +119,227 @@ public class KloaCov2 {
 	}
 
 
-	public static List<SewagePlant> loadPlants() {
-		List<SewagePlant> plants = new LinkedList<>();
+	/**
+	 * Open the terminals without an RKI of their own, sending to the RKI at <code>host[:port]</code> instead
+	 * (which has to be started with <code>--listen</code> and the same <code>plants.txt</code> and
+	 * <code>variants.txt</code>)
+	 */
+	public static void connect(String target) throws IOException, KloaCov2Exception {
+		int colon = target.lastIndexOf(':');
+		InetSocketAddress address;
+		try {
+			address = colon < 0 ? new InetSocketAddress(target, MeasurementServer.DEFAULT_PORT)
+					: new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+		} catch (NumberFormatException e) {
+			throw new KloaCov2Exception("Invalid port: " + target);
+		}
+		List<SewagePlant> plants = KloaCov2.loadPlants(KloaCov2.loadRegistry());
+		MeasurementClient client = new MeasurementClient(address);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				client.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}));
+		for (SewagePlant sp : plants) {
+			new SewageTerminal(sp, client);
+		}
+	}
+
+	/**
+	 * Write the measurement journal in the human readable format of <code>ppp-logs.txt</code>
+	 */
+	public static void exportLog(String fileName) throws IOException, KloaCov2Exception {
+		KloaCov2.exportLog(fileName, Collections.emptyMap());
+	}
+
+	/**
+	 * Write the measurements of a time range in the format of <code>ppp-logs.txt</code>. Options:
+	 * <ul>
+	 *     <li><code>--from=yyyy-MM-dd</code> first day to export (default: all)</li>
+	 *     <li><code>--to=yyyy-MM-dd</code> day after the last day to export (default: all)</li>
+	 * </ul>
+	 * Only the journal segments overlapping the range are read.
+	 */
+	public static void exportLog(String fileName, Map<String, String> options) throws IOException, KloaCov2Exception {
+		long from;
+		long to;
+		try {
+			from = options.containsKey("from") ? LocalDate.parse(options.get("from"))
+					.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() : Long.MIN_VALUE;
+			to = options.containsKey("to") ? LocalDate.parse(options.get("to"))
+					.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() : Long.MAX_VALUE;
+		} catch (DateTimeParseException e) {
+			throw new KloaCov2Exception("Invalid date: " + e.getParsedString());
+		}
+		PlantRegistry registry = KloaCov2.loadRegistry();
+		try (MeasurementJournal journal = new MeasurementJournal(Paths.get(JOURNAL_DIRECTORY));
+			 Writer w = new BufferedWriter(new FileWriter(fileName))) {
+			journal.exportText(w, registry::getPlant, from, to);
+		}
+	}
 
-		//
-		try (BufferedReader r = new BufferedReader(new FileReader("plants.txt"))) {
-			while (r.ready()) {
-				plants.add(KloaCov2.parsePlant(r.readLine()));
+	/**
+	 * Retention of the journal from the options <code>--retain-mb=N</code> (size on disk) and
+	 * <code>--retain-days=N</code> (age of the measurements), both unlimited by default
+	 */
+	private static RetentionPolicy retentionOf(Map<String, String> options) throws KloaCov2Exception {
+		try {
+			long megabytes = Long.parseLong(options.getOrDefault("retain-mb", "0"));
+			long days = Long.parseLong(options.getOrDefault("retain-days", "0"));
+			return new RetentionPolicy(megabytes * 1024 * 1024, TimeUnit.DAYS.toMillis(days));
+		} catch (NumberFormatException e) {
+			throw new KloaCov2Exception("Invalid retention: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Send synthetic measurements to a headless RKI and report throughput and latency. Options:
+	 * <ul>
+	 *     <li><code>--plants=N</code> number of virtual plants (default 1000)</li>
+	 *     <li><code>--random</code> place the plants randomly instead of taking them from <code>plants.txt</code></li>
+	 *     <li><code>--rate=R</code> measurements per second and plant (default 1)</li>
+	 *     <li><code>--arrivals=poisson|bursty</code> arrival pattern (default poisson)</li>
+	 *     <li><code>--burst=B</code> measurements per batch for bursty arrivals (default 10)</li>
+	 *     <li><code>--duration=S</code> seconds to send (default 30)</li>
+	 *     <li><code>--threads=T</code> sending threads (default number of processors)</li>
+	 *     <li><code>--journal=DIR</code> also log the measurements to a journal in the directory</li>
+	 *     <li><code>--network</code> send over a loopback connection to a {@link MeasurementServer}</li>
+	 *     <li><code>--alerts</code> evaluate the rules of <code>alerts.txt</code> while ingesting</li>
+	 * </ul>
+	 */
+	public static void simulate(String[] args) throws IOException, KloaCov2Exception, InterruptedException {
+		Map<String, String> options = KloaCov2.parseOptions(args);
+		try {
+			int count = Integer.parseInt(options.getOrDefault("plants", "1000"));
+			double rate = Double.parseDouble(options.getOrDefault("rate", "1"));
+			ArrivalPattern pattern = ArrivalPattern.valueOf(options.getOrDefault("arrivals", "poisson").toUpperCase());
+			int burst = Integer.parseInt(options.getOrDefault("burst", "10"));
+			long duration = Long.parseLong(options.getOrDefault("duration", "30"));
+			int threads = Integer.parseInt(options.getOrDefault("threads",
+					String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+			List<SewagePlant> plants;
+			IntFunction<SewagePlant> plantsById;
+			if (options.containsKey("random")) {
+				plants = LoadGenerator.randomPlants(count, 42);
+				// virtual plants are numbered in order
+				List<SewagePlant> virtual = plants;
+				plantsById = id -> id >= 0 && id < virtual.size() ? virtual.get(id) : null;
+			} else {
+				PlantRegistry registry = KloaCov2.loadRegistry();
+				if (count > registry.size()) {
+					throw new KloaCov2Exception("Only " + registry.size() + " plants in " + PLANTS_FILE + ", use --random");
+				}
+				plants = registry.getPlants().subList(0, count);
+				plantsById = registry::getPlant;
+			}
+
+			MeasurementJournal journal = options.containsKey("journal")
+					? new MeasurementJournal(Paths.get(options.get("journal"))) : null;
+			MeasurementStore store = new MeasurementStore(journal);
+			MeasurementIngestService ingest = new MeasurementIngestService(store);
+			LoadGenerator generator = new LoadGenerator(plants, rate, pattern, burst, threads, 42);
+			store.addListener(generator);
+			AlertEngine alerts = null;
+			if (options.containsKey("alerts")) {
+				alerts = new AlertEngine(KloaCov2.loadAlertRules());
+				store.addListener(alerts);
+				alerts.start();
+			}
+			ingest.start();
+
+			MeasurementServer server = null;
+			MeasurementClient client = null;
+			if (options.containsKey("network")) {
+				server = new MeasurementServer(ingest, plantsById, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+				server.start();
+				client = new MeasurementClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+			}
+
+			System.out.printf("Sending %.0f measurements/s from %d plants (%s) for %d s%n",
+					rate * plants.size(), plants.size(), pattern, duration);
+			generator.run(client != null ? client : ingest, duration, TimeUnit.SECONDS,
+					(elapsed, submitted) -> System.out.printf("%5.1f s: %d sent, %d queued%n",
+							elapsed / 1e9, submitted, ingest.getQueueSize()));
+			if (client != null) {
+				client.close();
+				server.close();
+			}
+			ingest.shutdown();
+			if (alerts != null) {
+				alerts.stop();
+			}
+			if (journal != null) {
+				journal.close();
+			}
+			System.out.println(generator.getReport());
+		} catch (IllegalArgumentException e) {
+			throw new KloaCov2Exception("Invalid option: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Load the rules of <code>alerts.txt</code>. Without the file, or if it cannot be parsed, baselines are kept
+	 * but no alerts are raised.
+	 */
+	public static List<AlertRule> loadAlertRules() throws IOException {
+		if (Files.notExists(Paths.get(ALERTS_FILE))) {
+			return Collections.emptyList();
+		}
+		try {
+			return AlertRule.load(Paths.get(ALERTS_FILE));
+		} catch (KloaCov2Exception e) {
+			System.err.println("Error parsing " + ALERTS_FILE + ", alerting disabled: " + e.getMessage());
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Parse arguments like <code>--name=value</code> or <code>--flag</code> (value <code>""</code>)
+	 */
+	private static Map<String, String> parseOptions(String[] args) throws KloaCov2Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg :
+				args) {
+			if (!arg.startsWith("--")) {
+				throw new KloaCov2Exception("Unknown argument: " + arg);
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
+			int eq = arg.indexOf('=');
+			options.put(arg.substring(2, eq < 0 ? arg.length() : eq), eq < 0 ? "" : arg.substring(eq + 1));
+		}
+		return options;
+	}
+
+	/**
+	 * Load all plants from <code>plants.txt</code> with their ids from <code>plant-ids.txt</code>, lines that
+	 * cannot be parsed are reported and skipped
+	 */
+	public static PlantRegistry loadRegistry() throws IOException, KloaCov2Exception {
+		PlantRegistry registry = PlantRegistry.load(Paths.get(PLANTS_FILE), Paths.get(PlantRegistry.DEFAULT_ID_FILE));
+		for (String error :
+				registry.getErrors()) {
+			System.err.println("Error parsing " + PLANTS_FILE + ": " + error);
 		}
+		return registry;
+	}
+
+
+	public static List<SewagePlant> loadPlants() throws IOException, KloaCov2Exception {
+		return KloaCov2.loadPlants(KloaCov2.loadRegistry());
+	}
+
+
+	/**
+	 * Pick the plants to open a terminal for
+	 *
+	 * @param registry all plants, the returned plants are taken from it
+	 */
+	public static List<SewagePlant> loadPlants(PlantRegistry registry) {
+		List<SewagePlant> plants = new ArrayList<>(registry.getPlants());
 		Collections.shuffle(plants);
-		plants = plants.subList(0, 3);
+		plants = plants.subList(0, Math.min(3, plants.size()));
 		// REPLACE THE FOLLOWING CODE
 //		plants.add(KloaCov2.parsePlant("Karlsruhe-Neureut;350000;8.359;49.046"));
 //		plants.add(KloaCov2.parsePlant("Bruchsal;50000;8.594;49.142"));
@@ -46,18 +349,27 @@ public class KloaCov2 {
 	}
 
 
-	private static SewagePlant parsePlant(String line) {
+	/**
+	 * Parse a line of <code>plants.txt</code> (<code>name;population;longitude;latitude</code>)
+	 *
+	 * @param id id of the new plant
+	 * @throws KloaCov2Exception if the line is malformed or the plant is out of bounds
+	 */
+	public static SewagePlant parsePlant(int id, String line) throws KloaCov2Exception {
+		String[] parts = line.split(";");
 		try {
-			String[] parts = line.split("[;]");
-			if (parts.length == 4) {
-				return new SewagePlant(parts[0], Integer.parseInt(parts[1]), Double.parseDouble(parts[2]),
-                        Double.parseDouble(parts[3]));
+			if (parts.length != 4) {
+				throw new KloaCov2Exception("Expected 4 fields, got " + parts.length + ": " + line);
 			}
-		} catch (Exception e) {
-			System.err.println("Error parsing line: " + line);
-			e.printStackTrace();
+			return new SewagePlant(id, parts[0], Integer.parseInt(parts[1]), Double.parseDouble(parts[2]),
+                    Double.parseDouble(parts[3]));
+		} catch (NumberFormatException e) {
+			PLANT_PARSE_ERRORS.increment();
+			throw new KloaCov2Exception("Invalid number in line: " + line);
+		} catch (KloaCov2Exception e) {
+			PLANT_PARSE_ERRORS.increment();
+			throw e;
 		}
-		return null;
 	}
 
 }
@@ -0,0 +1,77 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a text file into chunks at line boundaries, so the chunks can be parsed in parallel.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class LineChunks {
+
+	/**
+	 * Chunks are not made smaller than this, splitting tiny files is not worth it
+	 */
+	private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * Chunks are not made larger than this, a chunk must fit into a single mapped buffer
+	 */
+	private static final long MAX_CHUNK_SIZE = 256 * 1024 * 1024;
+
+	private LineChunks() {
+	}
+
+	/**
+	 * @return chunk boundaries: chunk <i>i</i> starts at element <i>i</i> and ends before element <i>i + 1</i>.
+	 * Every chunk but the last ends directly behind a line break.
+	 */
+	public static List<Long> split(FileChannel ch) throws IOException {
+		long size = ch.size();
+		long chunkCount = Math.max(1, Math.min(size / MIN_CHUNK_SIZE, Runtime.getRuntime().availableProcessors() * 4L));
+		chunkCount = Math.max(chunkCount, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		for (long i = 1; i < chunkCount; i++) {
+			long pos = Math.max(size * i / chunkCount, bounds.get(bounds.size() - 1));
+			// move behind the next line break
+			search:
+			while (pos < size) {
+				buf.clear();
+				int read = ch.read(buf, pos);
+				if (read <= 0) {
+					pos = size;
+					break;
+				}
+				for (int j = 0; j < read; j++) {
+					if (buf.get(j) == '\n') {
+						pos += j + 1;
+						break search;
+					}
+				}
+				pos += read;
+			}
+			if (pos < size && pos > bounds.get(bounds.size() - 1)) {
+				bounds.add(pos);
+			}
+		}
+		bounds.add(size);
+		return bounds;
+	}
+
+	/**
+	 * Map and decode a chunk (UTF-8). Safe to call from several threads on the same channel.
+	 */
+	public static String read(FileChannel ch, long start, long end) throws IOException {
+		MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		return StandardCharsets.UTF_8.decode(buf).toString();
+	}
+}
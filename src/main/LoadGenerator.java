@@ -0,0 +1,285 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless replacement for the {@link SewageTerminal}s: virtual plants send measurements to the RKI (directly or
+ * over the network) at a given rate, while the generator measures the achieved throughput and the
+ * time from sending a measurement until it has been applied to the {@link MeasurementStore}.
+ * <p>
+ * Latencies are measured from the time a measurement was <em>due</em>, not from the time it was actually handed
+ * over, so a backed up queue shows up as latency instead of silently lowering the sending rate.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class LoadGenerator implements MeasurementListener {
+
+	/**
+	 * Latencies kept for the percentiles, beyond that a uniform sample is kept
+	 */
+	private static final int MAX_SAMPLES = 1 << 20;
+
+	/**
+	 * Values per variant are drawn below this, so the totals spread over the color scale of the {@link BWMap}
+	 */
+	private static final int MAX_VALUE = 200;
+
+	private final List<SewagePlant> plants;
+	private final double ratePerPlant;
+	private final ArrivalPattern pattern;
+	private final int burstSize;
+	private final int threads;
+	private final long seed;
+
+	/**
+	 * Send time (nanos) of every measurement not yet applied, by {@link #keyOf(int, long)}. Measurements sent over
+	 * the network arrive as copies, so they are identified by plant and timestamp.
+	 */
+	private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+	private final AtomicLong submitted = new AtomicLong();
+	private long start;
+	private long end;
+
+	// only touched by the thread applying the measurements
+	private long[] samples = new long[1024];
+	private long applied = 0;
+	private long lastApplied = 0;
+	private long maxLatency = 0;
+	private SplittableRandom sampling = new SplittableRandom(1);
+
+	/**
+	 * @param plants       the virtual plants
+	 * @param ratePerPlant measurements per second and plant
+	 * @param threads      sending threads, the plants are distributed among them
+	 */
+	public LoadGenerator(List<SewagePlant> plants, double ratePerPlant, ArrivalPattern pattern, int burstSize,
+						 int threads, long seed) {
+		this.plants = plants;
+		this.ratePerPlant = ratePerPlant;
+		this.pattern = pattern;
+		this.burstSize = Math.max(1, burstSize);
+		this.threads = Math.max(1, Math.min(threads, plants.size()));
+		this.seed = seed;
+	}
+
+	/**
+	 * Create <code>count</code> plants at random positions inside the bounds accepted by {@link SewagePlant}
+	 */
+	public static List<SewagePlant> randomPlants(int count, long seed) throws KloaCov2Exception {
+		SplittableRandom random = new SplittableRandom(seed);
+		List<SewagePlant> plants = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			plants.add(new SewagePlant(i, "Virtual-" + i, random.nextInt(1000, 500000),
+					random.nextDouble(7, 10), random.nextDouble(47, 50)));
+		}
+		return plants;
+	}
+
+	/**
+	 * Send measurements for the given time. The generator has to be registered as listener of the store the
+	 * measurements end up in; once everything sent has been applied there, {@link #getReport()} has the results.
+	 *
+	 * @param progress called about once per second with the number of measurements sent so far
+	 */
+	public void run(MeasurementSubmitter rki, long duration, TimeUnit unit, Progress progress)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		long end = start + unit.toNanos(duration);
+		this.start = start;
+		this.end = end;
+		List<Thread> senders = new ArrayList<>(this.threads);
+		for (int t = 0; t < this.threads; t++) {
+			final int index = t;
+			Thread sender = new Thread(() -> this.send(rki, index, start, end), "load-generator-" + t);
+			sender.setDaemon(true);
+			senders.add(sender);
+			sender.start();
+		}
+
+		for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+			TimeUnit.NANOSECONDS.sleep(Math.min(end - now, TimeUnit.SECONDS.toNanos(1)));
+			if (progress != null) {
+				progress.update(System.nanoTime() - start, this.submitted.get());
+			}
+		}
+		for (Thread sender :
+				senders) {
+			sender.join();
+		}
+	}
+
+	private void send(MeasurementSubmitter rki, int thread, long start, long end) {
+		SplittableRandom random = new SplittableRandom(this.seed + thread);
+		int variants = VariantRegistry.getDefault().size();
+
+		// the plants of this thread, ordered by the time of their next measurement
+		// timestamps are kept unique per plant to identify the measurements
+		long[] lastTimestamps = new long[this.plants.size()];
+		PriorityQueue<long[]> schedule = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+		for (int i = thread; i < this.plants.size(); i += this.threads) {
+			schedule.add(new long[]{start + this.pattern.nextGap(random, this.ratePerPlant, this.burstSize), i});
+		}
+
+		try {
+			while (!schedule.isEmpty()) {
+				long[] next = schedule.poll();
+				// an overloaded RKI leaves measurements due that are not sent any more
+				if (next[0] >= end || System.nanoTime() >= end) {
+					break;
+				}
+				long wait = next[0] - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+
+				SewagePlant plant = this.plants.get((int) next[1]);
+				for (int b = 0; b < this.pattern.batchSize(this.burstSize); b++) {
+					int[] values = new int[variants];
+					for (int v = 0; v < variants; v++) {
+						values[v] = random.nextInt(MAX_VALUE);
+					}
+					int index = (int) next[1];
+					lastTimestamps[index] = Math.max(System.currentTimeMillis(), lastTimestamps[index] + 1);
+					VariantMeasurement meas = new VariantMeasurement(plant, lastTimestamps[index], values);
+					this.pending.put(LoadGenerator.keyOf(plant.getId(), meas.getTimestamp()), next[0]);
+					rki.submit(meas);
+					this.submitted.incrementAndGet();
+				}
+
+				next[0] += this.pattern.nextGap(random, this.ratePerPlant, this.burstSize);
+				schedule.add(next);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (KloaCov2Exception e) {
+			// RKI does not accept measurements any more, nothing more to send
+		}
+	}
+
+	@Override
+	public void measurementsApplied(List<VariantMeasurement> batch) {
+		long now = System.nanoTime();
+		for (VariantMeasurement meas :
+				batch) {
+			Long sent = this.pending.remove(LoadGenerator.keyOf(meas.getPlant().getId(), meas.getTimestamp()));
+			if (sent != null) {
+				this.record(Math.max(0, now - sent));
+			}
+		}
+		this.lastApplied = now;
+	}
+
+	private static Long keyOf(int plantId, long timestamp) {
+		return (long) plantId << 44 ^ timestamp;
+	}
+
+	private void record(long latency) {
+		this.maxLatency = Math.max(this.maxLatency, latency);
+		if (this.applied < MAX_SAMPLES) {
+			if (this.applied == this.samples.length) {
+				this.samples = Arrays.copyOf(this.samples, this.samples.length * 2);
+			}
+			this.samples[(int) this.applied] = latency;
+		} else {
+			// reservoir sampling keeps every latency with the same probability
+			long slot = this.sampling.nextLong(this.applied + 1);
+			if (slot < MAX_SAMPLES) {
+				this.samples[(int) slot] = latency;
+			}
+		}
+		this.applied++;
+	}
+
+	/**
+	 * Must only be called after the measurements have been applied, e.g. after shutting the ingest service down
+	 */
+	public Report getReport() {
+		int count = (int) Math.min(this.applied, MAX_SAMPLES);
+		long[] sorted = Arrays.copyOf(this.samples, count);
+		Arrays.sort(sorted);
+		long elapsed = Math.max(this.end, this.lastApplied) - this.start;
+		return new Report(this.plants.size(), this.submitted.get(), this.applied, elapsed, sorted, this.maxLatency);
+	}
+
+	/**
+	 * Receives the progress of a running generator
+	 */
+	public interface Progress {
+		/**
+		 * @param elapsed   nanoseconds since the start
+		 * @param submitted measurements sent so far
+		 */
+		void update(long elapsed, long submitted);
+	}
+
+	/**
+	 * Outcome of a run, latencies in nanoseconds
+	 */
+	public static class Report {
+		private final int plants;
+		private final long submitted;
+		private final long applied;
+		private final long elapsed;
+		private final long[] latencies;
+		private final long maxLatency;
+
+		private Report(int plants, long submitted, long applied, long elapsed, long[] latencies, long maxLatency) {
+			this.plants = plants;
+			this.submitted = submitted;
+			this.applied = applied;
+			this.elapsed = elapsed;
+			this.latencies = latencies;
+			this.maxLatency = maxLatency;
+		}
+
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		public long getApplied() {
+			return applied;
+		}
+
+		/**
+		 * @return measurements applied per second, from the start until the last measurement was applied
+		 */
+		public double getThroughput() {
+			return this.elapsed == 0 ? 0 : this.applied * 1e9 / this.elapsed;
+		}
+
+		/**
+		 * @param q between 0 and 1
+		 * @return latency of the quantile in nanoseconds, <code>0</code> if nothing was applied
+		 */
+		public long getLatency(double q) {
+			if (this.latencies.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(q * this.latencies.length) - 1;
+			return this.latencies[Math.max(0, Math.min(index, this.latencies.length - 1))];
+		}
+
+		public long getMaxLatency() {
+			return maxLatency;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d plants, %d measurements sent, %d applied in %.1f s%n"
+							+ "throughput: %.0f measurements/s%n"
+							+ "latency: p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+					this.plants, this.submitted, this.applied, this.elapsed / 1e9, this.getThroughput(),
+					this.getLatency(0.5) / 1e6, this.getLatency(0.9) / 1e6, this.getLatency(0.99) / 1e6,
+					this.getLatency(0.999) / 1e6, this.maxLatency / 1e6);
+		}
+	}
+}
@@ -9,4 +9,11 @@ public interface MapItem {
 	double getLongitude();
 
 	double getLatitude();
+
+	/**
+	 * @return weight of the item when interpolating between items (heatmap), e.g. the population behind it
+	 */
+	default double getWeight() {
+		return 1;
+	}
 }
@@ -0,0 +1,243 @@
+package main;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection to a remote RKI ({@link MeasurementServer}), usable from any number of threads.
+ * <p>
+ * Measurements are encoded into a buffer and written by a sender thread, so measurements submitted while a write
+ * is in progress go out together with the next one. Up to <code>window</code> measurements may be on their way
+ * before the client waits for the server to acknowledge them.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class MeasurementClient implements MeasurementSubmitter, AutoCloseable {
+
+	public static final int DEFAULT_WINDOW = 4096;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final SocketChannel channel;
+	private final int window;
+	private final Thread sender;
+	private final Thread receiver;
+
+	// guarded by this
+	private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+	private long sent = 0;
+	private long acknowledged = 0;
+	private boolean closed = false;
+	private IOException failure;
+
+	public MeasurementClient(InetSocketAddress address) throws IOException {
+		this(address, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window measurements that may be sent before the server has acknowledged them
+	 */
+	public MeasurementClient(InetSocketAddress address, int window) throws IOException {
+		this.channel = SocketChannel.open(address);
+		this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		this.window = window;
+		this.sender = new Thread(this::send, "measurement-client-sender");
+		this.sender.setDaemon(true);
+		this.receiver = new Thread(this::receive, "measurement-client-receiver");
+		this.receiver.setDaemon(true);
+		this.sender.start();
+		this.receiver.start();
+	}
+
+	/**
+	 * Submit a measurement, waiting while the window is full.
+	 *
+	 * @throws KloaCov2Exception if the connection is closed or was lost
+	 */
+	@Override
+	public synchronized void submit(VariantMeasurement meas) throws InterruptedException, KloaCov2Exception {
+		int size = MeasurementCodec.recordSize(meas);
+		while (!this.canAppend(size)) {
+			this.checkOpen();
+			this.wait();
+		}
+		this.checkOpen();
+		this.append(meas);
+	}
+
+	/**
+	 * Submit a measurement, waiting at most the given time while the window is full.
+	 *
+	 * @return <code>true</code> if the measurement was accepted, <code>false</code> if the window stayed full or
+	 * the connection is closed
+	 */
+	@Override
+	public synchronized boolean offer(VariantMeasurement meas, long timeout, TimeUnit unit) throws InterruptedException {
+		int size = MeasurementCodec.recordSize(meas);
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!this.canAppend(size) && !this.closed && this.failure == null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		if (this.closed || this.failure != null) {
+			return false;
+		}
+		this.append(meas);
+		return true;
+	}
+
+	/**
+	 * Wait until the server has acknowledged everything submitted so far.
+	 *
+	 * @return <code>false</code> if the time elapsed or the connection was lost before
+	 */
+	public synchronized boolean awaitAcknowledged(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (this.acknowledged < this.sent && this.failure == null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return this.acknowledged == this.sent;
+	}
+
+	/**
+	 * @return measurements the server has confirmed to have received
+	 */
+	public synchronized long getAcknowledged() {
+		return this.acknowledged;
+	}
+
+	/**
+	 * Wait up to 10 seconds for outstanding acks, then close the connection. If the calling thread is interrupted
+	 * meanwhile, the connection is closed right away and the interrupt is kept.
+	 */
+	@Override
+	public void close() throws IOException {
+		boolean interrupted = false;
+		try {
+			this.awaitAcknowledged(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+		synchronized (this) {
+			this.closed = true;
+			this.notifyAll();
+		}
+		interrupted |= MeasurementClient.join(this.sender);
+		this.channel.close();
+		interrupted |= MeasurementClient.join(this.receiver);
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait for a thread that is about to end, even if the calling thread is interrupted
+	 *
+	 * @return <code>true</code> if the calling thread was interrupted meanwhile
+	 */
+	private static boolean join(Thread thread) {
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		return interrupted;
+	}
+
+	private boolean canAppend(int size) {
+		return this.sent - this.acknowledged < this.window && this.pending.remaining() >= size;
+	}
+
+	private void checkOpen() throws KloaCov2Exception {
+		if (this.closed) {
+			throw new KloaCov2Exception("Connection to RKI is closed");
+		}
+		if (this.failure != null) {
+			throw new KloaCov2Exception("Connection to RKI lost: " + this.failure.getMessage());
+		}
+	}
+
+	private void append(VariantMeasurement meas) {
+		boolean wasEmpty = this.pending.position() == 0;
+		MeasurementCodec.encode(meas, this.pending);
+		this.sent++;
+		// only the sender waits for data, and only for an empty buffer
+		if (wasEmpty) {
+			this.notifyAll();
+		}
+	}
+
+	private void send() {
+		ByteBuffer sending = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			while (true) {
+				synchronized (this) {
+					while (this.pending.position() == 0 && !this.closed && this.failure == null) {
+						this.wait();
+					}
+					if (this.pending.position() == 0 || this.failure != null) {
+						return;
+					}
+					// swap, producers continue with the empty buffer while this one is written
+					ByteBuffer full = this.pending;
+					this.pending = sending;
+					sending = full;
+					this.notifyAll();
+				}
+				sending.flip();
+				while (sending.hasRemaining()) {
+					this.channel.write(sending);
+				}
+				sending.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	private void receive() {
+		ByteBuffer ack = ByteBuffer.allocate(Long.BYTES);
+		try {
+			while (true) {
+				while (ack.hasRemaining()) {
+					if (this.channel.read(ack) < 0) {
+						throw new EOFException("Connection closed by RKI");
+					}
+				}
+				ack.flip();
+				long count = ack.getLong();
+				ack.clear();
+				synchronized (this) {
+					this.acknowledged = count;
+					this.notifyAll();
+				}
+			}
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	private synchronized void fail(IOException e) {
+		if (!this.closed && this.failure == null) {
+			this.failure = e;
+		}
+		this.notifyAll();
+	}
+}
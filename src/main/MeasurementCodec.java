@@ -0,0 +1,100 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary representation of a {@link VariantMeasurement}.
+ * <p>
+ * Layout of a record (big endian):
+ * <pre>
+ * int  length      total record length in bytes (header included)
+ * int  checksum    CRC32 of the length and everything behind the checksum
+ * int  plantId     {@link SewagePlant#getId()}
+ * long timestamp   epoch millis of the measurement
+ * int  value[n]    one value per variant, indexed by ordinal, n = (length - HEADER_SIZE) / 4
+ * </pre>
+ * A length of <code>0</code> marks the end of the written data. The checksum detects records that were only
+ * partly written, e.g. when the pages of a memory-mapped file reached the disk in a different order before a
+ * crash.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class MeasurementCodec {
+
+	public static final int HEADER_SIZE = 20;
+
+	private MeasurementCodec() {
+	}
+
+	public static int recordSize(VariantMeasurement meas) {
+		return HEADER_SIZE + meas.getValueCount() * Integer.BYTES;
+	}
+
+	/**
+	 * Write the record at the current position of the buffer.
+	 * The length is written last, so a partially written record reads as end of data.
+	 */
+	public static void encode(VariantMeasurement meas, ByteBuffer buffer) {
+		int start = buffer.position();
+		int length = recordSize(meas);
+		buffer.putInt(start, 0);
+		buffer.position(start + 2 * Integer.BYTES);
+		buffer.putInt(meas.getPlant().getId());
+		buffer.putLong(meas.getTimestamp());
+		for (int i = 0; i < meas.getValueCount(); i++) {
+			buffer.putInt(meas.getValue(i));
+		}
+		buffer.putInt(start + Integer.BYTES, checksum(buffer, start, length));
+		buffer.putInt(start, length);
+	}
+
+	private static int checksum(ByteBuffer buffer, int start, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(length >>> 24);
+		crc.update(length >>> 16);
+		crc.update(length >>> 8);
+		crc.update(length);
+		ByteBuffer payload = buffer.duplicate();
+		payload.limit(start + length).position(start + 2 * Integer.BYTES);
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Read the record at the current position of the buffer.
+	 *
+	 * @param plants lookup of plants by id
+	 * @return the measurement or <code>null</code> at the end of the written data. If the plant is unknown, the
+	 * record is skipped and a measurement without plant is returned.
+	 * @throws KloaCov2Exception if the length is invalid or the checksum does not match
+	 */
+	public static VariantMeasurement decode(ByteBuffer buffer, IntFunction<SewagePlant> plants) throws KloaCov2Exception {
+		if (buffer.remaining() < HEADER_SIZE) {
+			return null;
+		}
+		int start = buffer.position();
+		int length = buffer.getInt();
+		if (length == 0) {
+			buffer.position(start);
+			return null;
+		}
+		if (length < HEADER_SIZE || length > buffer.remaining() + Integer.BYTES || (length - HEADER_SIZE) % Integer.BYTES != 0) {
+			throw new KloaCov2Exception("Corrupt record at " + start + ": length " + length);
+		}
+		int checksum = buffer.getInt();
+		if (checksum != checksum(buffer, start, length)) {
+			throw new KloaCov2Exception("Corrupt record at " + start + ": checksum mismatch");
+		}
+		int plantId = buffer.getInt();
+		long timestamp = buffer.getLong();
+		int count = (length - HEADER_SIZE) / Integer.BYTES;
+
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = buffer.getInt();
+		}
+		return new VariantMeasurement(plants.apply(plantId), timestamp, values);
+	}
+}
@@ -0,0 +1,171 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accepts measurements from any number of producer threads and applies them to a {@link MeasurementStore}.
+ * <p>
+ * Producers hand their measurements to a bounded queue, so they are slowed down (or rejected) when the RKI
+ * cannot keep up. A single consumer thread drains the queue and applies everything that has piled up as one
+ * batch, which means listeners (UI, log) only ever see whole batches.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class MeasurementIngestService implements MeasurementSubmitter {
+
+	public static final int DEFAULT_CAPACITY = 65536;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+
+	/**
+	 * How often an idle consumer checks for shutdown. It is never interrupted, an interrupt while the store
+	 * writes the journal would close the journal's file channel.
+	 */
+	private static final long POLL_MILLIS = 100;
+
+	private final MeasurementStore store;
+	private final BlockingQueue<VariantMeasurement> queue;
+	private final int maxBatchSize;
+
+	private final Thread consumer;
+
+	/**
+	 * Whether producers may submit, cleared first on shutdown
+	 */
+	private volatile boolean accepting = false;
+
+	/**
+	 * Whether the consumer keeps waiting for measurements, cleared once no producer is submitting any more
+	 */
+	private volatile boolean running = false;
+
+	/**
+	 * Producers that passed the check of {@link #accepting} and did not finish enqueueing yet
+	 */
+	private final AtomicInteger submitting = new AtomicInteger();
+
+	private final Histogram latency = MetricsRegistry.getDefault().histogram("ingest.latency");
+	private final Histogram batchSizes = MetricsRegistry.getDefault().histogram("ingest.batchSize");
+	private final Counter rejected = MetricsRegistry.getDefault().counter("ingest.rejected");
+	private final Counter errors = MetricsRegistry.getDefault().counter("ingest.errors");
+
+	public MeasurementIngestService(MeasurementStore store) {
+		this(store, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	public MeasurementIngestService(MeasurementStore store, int capacity, int maxBatchSize) {
+		this.store = store;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.maxBatchSize = maxBatchSize;
+		this.consumer = new Thread(this::consume, "measurement-ingest");
+		this.consumer.setDaemon(true);
+		MetricsRegistry.getDefault().gauge("ingest.queueDepth", this.queue::size);
+	}
+
+	public void start() {
+		this.running = true;
+		this.accepting = true;
+		this.consumer.start();
+	}
+
+	/**
+	 * Stop accepting measurements and wait until everything already queued has been applied.
+	 * <p>
+	 * Producers that are still enqueueing are waited for while the consumer keeps draining the queue, so a
+	 * measurement is either rejected or applied, and a producer blocked on a full queue is never left behind.
+	 */
+	public void shutdown() throws InterruptedException {
+		this.accepting = false;
+		while (this.submitting.get() > 0) {
+			Thread.sleep(1);
+		}
+		this.running = false;
+		this.consumer.join();
+	}
+
+	/**
+	 * Submit a measurement, waiting for free space in the queue if necessary.
+	 */
+	@Override
+	public void submit(VariantMeasurement meas) throws InterruptedException, KloaCov2Exception {
+		this.submitting.incrementAndGet();
+		try {
+			if (!this.accepting) {
+				throw new KloaCov2Exception("Ingest service is not running");
+			}
+			meas.setReceivedNanos(System.nanoTime());
+			this.queue.put(meas);
+		} finally {
+			this.submitting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Submit a measurement, waiting at most the given time for free space in the queue.
+	 *
+	 * @return <code>true</code> if the measurement was accepted, <code>false</code> if the queue stayed full
+	 */
+	@Override
+	public boolean offer(VariantMeasurement meas, long timeout, TimeUnit unit) throws InterruptedException {
+		this.submitting.incrementAndGet();
+		try {
+			if (!this.accepting) {
+				return false;
+			}
+			meas.setReceivedNanos(System.nanoTime());
+			if (!this.queue.offer(meas, timeout, unit)) {
+				this.rejected.increment();
+				return false;
+			}
+			return true;
+		} finally {
+			this.submitting.decrementAndGet();
+		}
+	}
+
+	public int getQueueSize() {
+		return this.queue.size();
+	}
+
+	private void consume() {
+		List<VariantMeasurement> batch = new ArrayList<>(this.maxBatchSize);
+		while (this.running || !this.queue.isEmpty()) {
+			try {
+				VariantMeasurement meas = this.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (meas == null) {
+					continue;
+				}
+				batch.add(meas);
+			} catch (InterruptedException e) {
+				// nobody else interrupts the consumer, keep draining until shutdown
+				continue;
+			}
+			this.queue.drainTo(batch, this.maxBatchSize - batch.size());
+			try {
+				this.store.receiveMeasurements(batch);
+			} catch (RuntimeException e) {
+				this.errors.increment();
+				e.printStackTrace();
+			}
+			this.recordLatencies(batch);
+			// listeners may keep the batch (e.g. for the EDT), so never reuse it
+			batch = new ArrayList<>(this.maxBatchSize);
+		}
+	}
+
+	/**
+	 * Time from submitting until the store and all its listeners are done with the measurement
+	 */
+	private void recordLatencies(List<VariantMeasurement> batch) {
+		long now = System.nanoTime();
+		this.batchSizes.record(batch.size());
+		for (VariantMeasurement meas :
+				batch) {
+			this.latency.record(now - meas.getReceivedNanos());
+		}
+	}
+}
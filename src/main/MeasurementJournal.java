@@ -0,0 +1,670 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary append-only log of all received measurements.
+ * <p>
+ * The journal consists of segment files. The active segment is memory-mapped while written and closed when it is
+ * full or older than the configured segment age. Each segment is named after its base offset, so a position in
+ * the journal is a single <code>long</code> that stays valid across segments and restarts. Records are encoded by
+ * {@link MeasurementCodec}. A batch is written as a whole and then committed according to the
+ * {@link FsyncPolicy}, so the number of syscalls depends on the number of batches and not on the number of
+ * measurements.
+ * <p>
+ * Every record carries a checksum. On startup, the first invalid record of the active segment (e.g. torn by a
+ * crash) is treated as the end of the journal and the segment is truncated there.
+ * <p>
+ * Closed segments are compressed with GZIP by a background thread and deleted according to the
+ * {@link RetentionPolicy}. An index file lists the offset range and the time range of every closed segment, so
+ * reads only open the segments they need and the journal does not have to be scanned on startup.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class MeasurementJournal implements AutoCloseable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	public static final long DEFAULT_SEGMENT_AGE_MILLIS = 60 * 60 * 1000;
+	public static final long DEFAULT_FSYNC_INTERVAL_MILLIS = 1000;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String COMPRESSED_SUFFIX = ".log.gz";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final String INDEX_FILE = "segments.idx";
+
+	/**
+	 * Version of the record format, segments of another version are not read
+	 */
+	private static final String FORMAT_FILE = "format";
+	private static final String FORMAT_VERSION = "2";
+
+	private final Path directory;
+	private final int segmentSize;
+	private final long segmentAgeMillis;
+	private final FsyncPolicy fsyncPolicy;
+	private final RetentionPolicy retention;
+
+	// active segment
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private long segmentBase;
+	private long segmentOpened;
+	private long minTimestamp;
+	private long maxTimestamp;
+	private boolean dirty = false;
+
+	/**
+	 * Closed segments in order of their base, guarded by this
+	 */
+	private final List<Segment> closed = new ArrayList<>();
+
+	/**
+	 * Records behind this position are needed for recovery and must not be deleted. Nothing is deleted before
+	 * recovery has told the journal where it starts.
+	 */
+	private volatile long checkpoint = 0;
+
+	/**
+	 * Compresses closed segments and applies the retention policy
+	 */
+	private final ExecutorService maintenance;
+
+	/**
+	 * Forces the active segment once per interval while it is dirty, <code>null</code> unless the policy is
+	 * {@link FsyncPolicy#INTERVAL}
+	 */
+	private final ScheduledExecutorService flusher;
+
+	private final Histogram appendLatency = MetricsRegistry.getDefault().histogram("journal.appendLatency");
+	private final Histogram fsyncLatency = MetricsRegistry.getDefault().histogram("journal.fsyncLatency");
+	private final Counter appendedBytes = MetricsRegistry.getDefault().counter("journal.appendedBytes");
+	private final Counter rotations = MetricsRegistry.getDefault().counter("journal.rotations");
+	private final Counter compressedBytes = MetricsRegistry.getDefault().counter("journal.compressedBytes");
+	private final Counter expiredSegments = MetricsRegistry.getDefault().counter("journal.expiredSegments");
+
+	/**
+	 * Offset and time range of a closed segment
+	 */
+	private static class Segment {
+		private final long base;
+		private final int length;
+		private final long minTimestamp;
+		private final long maxTimestamp;
+
+		private Segment(long base, int length, long minTimestamp, long maxTimestamp) {
+			this.base = base;
+			this.length = length;
+			this.minTimestamp = minTimestamp;
+			this.maxTimestamp = maxTimestamp;
+		}
+
+		private long end() {
+			return this.base + this.length;
+		}
+	}
+
+	public MeasurementJournal(Path directory) throws IOException, KloaCov2Exception {
+		this(directory, RetentionPolicy.KEEP_ALL);
+	}
+
+	public MeasurementJournal(Path directory, RetentionPolicy retention) throws IOException, KloaCov2Exception {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENT_AGE_MILLIS, FsyncPolicy.INTERVAL,
+				DEFAULT_FSYNC_INTERVAL_MILLIS, retention);
+	}
+
+	public MeasurementJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException, KloaCov2Exception {
+		this(directory, segmentSize, DEFAULT_SEGMENT_AGE_MILLIS, fsyncPolicy, fsyncIntervalMillis, RetentionPolicy.KEEP_ALL);
+	}
+
+	/**
+	 * @param segmentSize      bytes after which a segment is closed
+	 * @param segmentAgeMillis time after which a segment is closed, checked when a batch is appended
+	 */
+	public MeasurementJournal(Path directory, int segmentSize, long segmentAgeMillis, FsyncPolicy fsyncPolicy,
+							  long fsyncIntervalMillis, RetentionPolicy retention) throws IOException, KloaCov2Exception {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.segmentAgeMillis = segmentAgeMillis;
+		this.fsyncPolicy = fsyncPolicy;
+		this.retention = retention;
+		this.maintenance = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "journal-maintenance");
+			t.setDaemon(true);
+			return t;
+		});
+
+		Files.createDirectories(directory);
+		this.deleteTemporaryFiles();
+		this.checkFormat();
+		Map<Long, Segment> index = this.readIndex();
+		List<Long> bases = this.listSegments();
+		boolean indexChanged = false;
+		for (int i = 0; i < bases.size(); i++) {
+			long base = bases.get(i);
+			Segment s = index.get(base);
+			boolean last = i == bases.size() - 1;
+			if (s == null && last && Files.exists(this.segmentPath(base))) {
+				// the active segment is not in the index
+				this.openSegment(base);
+				this.seekToEnd();
+				break;
+			}
+			if (s == null) {
+				// closed before the index was written, or a journal from before the index existed
+				s = this.scan(base);
+				indexChanged = true;
+			}
+			this.closed.add(s);
+			if (last) {
+				this.openSegment(s.end());
+			}
+		}
+		if (this.buffer == null) {
+			this.openSegment(0);
+		}
+		if (indexChanged || index.size() != this.closed.size()) {
+			this.writeIndex();
+		}
+		this.maintenance.execute(this::maintain);
+		if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+			this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "journal-fsync");
+				t.setDaemon(true);
+				return t;
+			});
+			this.flusher.scheduleAtFixedRate(this::flush, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			this.flusher = null;
+		}
+	}
+
+	/**
+	 * Append a batch of measurements and commit it.
+	 *
+	 * @return journal position after the batch
+	 */
+	public synchronized long append(List<VariantMeasurement> batch) throws IOException {
+		long start = System.nanoTime();
+		if (this.buffer.position() > 0 && System.currentTimeMillis() - this.segmentOpened >= this.segmentAgeMillis) {
+			this.roll();
+		}
+		long bytes = 0;
+		for (VariantMeasurement meas :
+				batch) {
+			int size = MeasurementCodec.recordSize(meas);
+			// always keep room for the end marker
+			if (this.buffer.remaining() < size + Integer.BYTES) {
+				if (this.buffer.position() == 0) {
+					throw new IOException("Record of " + size + " bytes does not fit into a segment");
+				}
+				this.roll();
+			}
+			MeasurementCodec.encode(meas, this.buffer);
+			this.minTimestamp = Math.min(this.minTimestamp, meas.getTimestamp());
+			this.maxTimestamp = Math.max(this.maxTimestamp, meas.getTimestamp());
+			bytes += size;
+		}
+		this.dirty = true;
+		this.commit();
+		this.appendedBytes.add(bytes);
+		this.appendLatency.recordSince(start);
+		return this.getPosition();
+	}
+
+	private void commit() {
+		switch (this.fsyncPolicy) {
+			case ALWAYS:
+				this.force();
+				break;
+			case INTERVAL:
+				// forced by the flusher, also if no further batch comes
+			case NEVER:
+				break;
+		}
+	}
+
+	private void force() {
+		if (this.dirty) {
+			long start = System.nanoTime();
+			this.buffer.force();
+			this.fsyncLatency.recordSince(start);
+			this.dirty = false;
+		}
+	}
+
+	private synchronized void flush() {
+		this.force();
+	}
+
+	public synchronized long getPosition() {
+		return this.segmentBase + this.buffer.position();
+	}
+
+	/**
+	 * Tell the journal which records are needed to recover, e.g. after writing a snapshot. Until a checkpoint is
+	 * set, the retention policy does not delete anything, so recovery can still read every segment after the
+	 * latest snapshot.
+	 *
+	 * @param position journal position recovery starts at, segments behind it are kept regardless of the
+	 *                 retention policy
+	 */
+	public void setCheckpoint(long position) {
+		this.checkpoint = position;
+		try {
+			this.maintenance.execute(this::maintain);
+		} catch (RejectedExecutionException e) {
+			// closed, the next start applies the retention policy
+		}
+	}
+
+	/**
+	 * Read all records from the given position to the current end of the journal.
+	 *
+	 * @param from   journal position to start at (e.g. <code>0</code> or a position returned by {@link #append(List)})
+	 * @param plants lookup of plants by id
+	 * @param action called for every record in order, records of unknown plants are skipped
+	 * @return journal position after the last record read
+	 */
+	public long read(long from, IntFunction<SewagePlant> plants, Consumer<VariantMeasurement> action) throws IOException, KloaCov2Exception {
+		return this.read(from, Long.MIN_VALUE, Long.MAX_VALUE, plants, action);
+	}
+
+	/**
+	 * Read all records with <code>from &lt;= timestamp &lt; to</code>. Only segments whose time range overlaps are
+	 * opened.
+	 *
+	 * @param plants lookup of plants by id
+	 * @param action called for every matching record in order, records of unknown plants are skipped
+	 */
+	public void readRange(long from, long to, IntFunction<SewagePlant> plants, Consumer<VariantMeasurement> action) throws IOException, KloaCov2Exception {
+		this.read(0, from, to, plants, action);
+	}
+
+	private long read(long from, long fromTimestamp, long toTimestamp, IntFunction<SewagePlant> plants,
+					  Consumer<VariantMeasurement> action) throws IOException, KloaCov2Exception {
+		List<Segment> segments;
+		long end;
+		synchronized (this) {
+			end = this.getPosition();
+			segments = new ArrayList<>(this.closed);
+			// the active segment, up to the current end
+			segments.add(new Segment(this.segmentBase, this.buffer.position(), this.minTimestamp, this.maxTimestamp));
+		}
+		long position = from;
+		for (Segment s :
+				segments) {
+			if (position >= end) {
+				break;
+			}
+			if (s.end() <= position || s.maxTimestamp < fromTimestamp || s.minTimestamp >= toTimestamp) {
+				continue;
+			}
+			ByteBuffer data = this.load(s.base, s.length);
+			if (data == null) {
+				// deleted by the retention policy in the meantime
+				continue;
+			}
+			data.position((int) (Math.max(position, s.base) - s.base));
+			while (true) {
+				VariantMeasurement meas;
+				try {
+					meas = MeasurementCodec.decode(data, plants);
+				} catch (KloaCov2Exception e) {
+					// only possible if a closed segment was damaged later on, the rest of it is lost
+					System.err.println("Skipping rest of journal segment at " + s.base + ": " + e.getMessage());
+					break;
+				}
+				if (meas == null) {
+					break;
+				}
+				if (meas.getPlant() != null && meas.getTimestamp() >= fromTimestamp && meas.getTimestamp() < toTimestamp) {
+					action.accept(meas);
+				}
+			}
+			position = s.end();
+		}
+		return Math.min(Math.max(position, from), end);
+	}
+
+	/**
+	 * Write the whole journal in the human readable format of the old <code>ppp-logs.txt</code>.
+	 */
+	public void exportText(Writer out, IntFunction<SewagePlant> plants) throws IOException, KloaCov2Exception {
+		this.exportText(out, plants, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Write the records with <code>from &lt;= timestamp &lt; to</code> in the format of <code>ppp-logs.txt</code>.
+	 */
+	public void exportText(Writer out, IntFunction<SewagePlant> plants, long from, long to) throws IOException, KloaCov2Exception {
+		PrintWriter p = new PrintWriter(out);
+		this.readRange(from, to, plants, meas -> p.println(meas.getPlant().getName() +
+				" (" + meas.getDate().toString() + "): " +
+				meas.getMeasurements()));
+		p.flush();
+	}
+
+	/**
+	 * Close the active segment and wait for the background compression to finish.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.flusher != null) {
+			this.flusher.shutdown();
+		}
+		synchronized (this) {
+			this.force();
+			this.channel.close();
+		}
+		this.maintenance.shutdown();
+		try {
+			this.maintenance.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void roll() throws IOException {
+		this.force();
+		this.channel.close();
+		this.closed.add(new Segment(this.segmentBase, this.buffer.position(), this.minTimestamp, this.maxTimestamp));
+		this.writeIndex();
+		this.openSegment(this.segmentBase + this.buffer.position());
+		this.rotations.increment();
+		this.maintenance.execute(this::maintain);
+	}
+
+	private void openSegment(long base) throws IOException {
+		this.segmentBase = base;
+		this.segmentOpened = System.currentTimeMillis();
+		this.minTimestamp = Long.MAX_VALUE;
+		this.maxTimestamp = Long.MIN_VALUE;
+		this.channel = FileChannel.open(this.segmentPath(base),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = Math.max(this.channel.size(), this.segmentSize);
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Find the end of the active segment. A damaged record ends it, it and everything behind are zeroed, so
+	 * records appended later are not followed by garbage.
+	 */
+	private void seekToEnd() {
+		while (true) {
+			int start = this.buffer.position();
+			VariantMeasurement meas;
+			try {
+				meas = MeasurementCodec.decode(this.buffer, id -> null);
+			} catch (KloaCov2Exception e) {
+				System.err.println("Truncating journal segment " + this.segmentPath(this.segmentBase) + ": " + e.getMessage());
+				this.buffer.position(start);
+				for (int i = start; i < this.buffer.limit(); i++) {
+					this.buffer.put(i, (byte) 0);
+				}
+				this.buffer.force();
+				return;
+			}
+			if (meas == null) {
+				return;
+			}
+			this.minTimestamp = Math.min(this.minTimestamp, meas.getTimestamp());
+			this.maxTimestamp = Math.max(this.maxTimestamp, meas.getTimestamp());
+		}
+	}
+
+	/**
+	 * Rebuild the index entry of a closed segment
+	 */
+	private Segment scan(long base) throws IOException {
+		ByteBuffer data = this.load(base, -1);
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		while (true) {
+			int start = data.position();
+			VariantMeasurement meas;
+			try {
+				meas = MeasurementCodec.decode(data, id -> null);
+			} catch (KloaCov2Exception e) {
+				// the segment ends before the damaged record
+				System.err.println("Journal segment " + this.segmentPath(base) + " ends early: " + e.getMessage());
+				data.position(start);
+				break;
+			}
+			if (meas == null) {
+				break;
+			}
+			min = Math.min(min, meas.getTimestamp());
+			max = Math.max(max, meas.getTimestamp());
+		}
+		return new Segment(base, data.position(), min, max);
+	}
+
+	/**
+	 * Map or decompress the first bytes of a segment.
+	 *
+	 * @param length bytes to load, <code>-1</code> for the whole segment
+	 * @return the data or <code>null</code> if the segment does not exist any more
+	 */
+	private ByteBuffer load(long base, int length) throws IOException {
+		// compression may replace the file in the meantime, the compressed file is complete before that
+		try (FileChannel ch = FileChannel.open(this.segmentPath(base), StandardOpenOption.READ)) {
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, length < 0 ? ch.size() : Math.min(ch.size(), length));
+		} catch (NoSuchFileException e) {
+			// compressed
+		}
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(this.compressedPath(base)))) {
+			return ByteBuffer.wrap(length < 0 ? in.readAllBytes() : in.readNBytes(length));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Compress the closed segments that are not compressed yet, then delete the expired ones
+	 */
+	private void maintain() {
+		try {
+			List<Segment> segments;
+			synchronized (this) {
+				segments = new ArrayList<>(this.closed);
+			}
+			for (Segment s :
+					segments) {
+				if (Files.exists(this.segmentPath(s.base))) {
+					this.compress(s);
+				}
+			}
+			this.applyRetention();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void compress(Segment s) throws IOException {
+		Path source = this.segmentPath(s.base);
+		Path target = this.compressedPath(s.base);
+		if (!Files.exists(target)) {
+			Path tmp = target.resolveSibling(target.getFileName() + TMP_SUFFIX);
+			try (FileChannel ch = FileChannel.open(source, StandardOpenOption.READ);
+				 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+				ByteBuffer data = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), s.length));
+				byte[] chunk = new byte[64 * 1024];
+				while (data.hasRemaining()) {
+					int n = Math.min(chunk.length, data.remaining());
+					data.get(chunk, 0, n);
+					out.write(chunk, 0, n);
+				}
+			}
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ch.force(true);
+			}
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+			this.compressedBytes.add(Files.size(target));
+		}
+		// a complete compressed copy exists
+		Files.deleteIfExists(source);
+	}
+
+	/**
+	 * Delete the oldest closed segments while the retention policy says so, but never the ones needed for recovery
+	 */
+	private void applyRetention() throws IOException {
+		long now = System.currentTimeMillis();
+		List<Segment> segments;
+		long total;
+		synchronized (this) {
+			segments = new ArrayList<>(this.closed);
+			total = this.buffer.position();
+		}
+		for (Segment s :
+				segments) {
+			total += this.diskSize(s);
+		}
+		for (Segment s :
+				segments) {
+			if (!this.retention.isExpired(total, s.maxTimestamp, now) || s.end() > this.checkpoint) {
+				break;
+			}
+			long size = this.diskSize(s);
+			synchronized (this) {
+				this.closed.remove(s);
+				this.writeIndex();
+			}
+			Files.deleteIfExists(this.compressedPath(s.base));
+			Files.deleteIfExists(this.segmentPath(s.base));
+			total -= size;
+			this.expiredSegments.increment();
+		}
+	}
+
+	private long diskSize(Segment s) throws IOException {
+		Path compressed = this.compressedPath(s.base);
+		return Files.exists(compressed) ? Files.size(compressed) : s.length;
+	}
+
+	/**
+	 * Lines of <code>base;length;minTimestamp;maxTimestamp</code>
+	 */
+	private Map<Long, Segment> readIndex() throws IOException, KloaCov2Exception {
+		Map<Long, Segment> index = new HashMap<>();
+		Path path = this.directory.resolve(INDEX_FILE);
+		if (!Files.exists(path)) {
+			return index;
+		}
+		for (String line :
+				Files.readAllLines(path, StandardCharsets.UTF_8)) {
+			String[] parts = line.split(";");
+			try {
+				if (parts.length != 4) {
+					throw new NumberFormatException();
+				}
+				Segment s = new Segment(Long.parseLong(parts[0]), Integer.parseInt(parts[1]),
+						Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+				index.put(s.base, s);
+			} catch (NumberFormatException e) {
+				throw new KloaCov2Exception("Invalid line in " + path + ": " + line);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Replace the index file with the current list of closed segments, callers hold the lock
+	 */
+	private void writeIndex() throws IOException {
+		Path path = this.directory.resolve(INDEX_FILE);
+		Path tmp = path.resolveSibling(INDEX_FILE + TMP_SUFFIX);
+		try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			for (Segment s :
+					this.closed) {
+				w.write(s.base + ";" + s.length + ";" + s.minTimestamp + ";" + s.maxTimestamp);
+				w.newLine();
+			}
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Check that existing segments have the current record format, mark a new journal with it
+	 */
+	private void checkFormat() throws IOException, KloaCov2Exception {
+		Path path = this.directory.resolve(FORMAT_FILE);
+		if (Files.exists(path)) {
+			String version = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+			if (!version.equals(FORMAT_VERSION)) {
+				throw new KloaCov2Exception("Journal in " + this.directory + " has format " + version + ", expected " + FORMAT_VERSION);
+			}
+			return;
+		}
+		if (!this.listSegments().isEmpty()) {
+			throw new KloaCov2Exception("Journal in " + this.directory + " was written without record checksums, export it with the previous version");
+		}
+		Files.write(path, FORMAT_VERSION.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void deleteTemporaryFiles() throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + TMP_SUFFIX)) {
+			for (Path p :
+					stream) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	private Path segmentPath(long base) {
+		return this.directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX));
+	}
+
+	private Path compressedPath(long base) {
+		return this.directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, base, COMPRESSED_SUFFIX));
+	}
+
+	/**
+	 * @return bases of all segments, compressed or not, in ascending order
+	 */
+	private List<Long> listSegments() throws IOException {
+		TreeSet<Long> bases = new TreeSet<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*")) {
+			for (Path p :
+					stream) {
+				String name = p.getFileName().toString();
+				String suffix = name.endsWith(COMPRESSED_SUFFIX) ? COMPRESSED_SUFFIX
+						: name.endsWith(SEGMENT_SUFFIX) ? SEGMENT_SUFFIX : null;
+				if (suffix != null) {
+					bases.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - suffix.length())));
+				}
+			}
+		}
+		return new ArrayList<>(bases);
+	}
+}
@@ -0,0 +1,17 @@
+package main;
+
+import java.util.List;
+
+/**
+ * Gets notified whenever a batch of measurements has been applied to a {@link MeasurementStore}.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public interface MeasurementListener {
+	/**
+	 * Called on the thread that applied the batch, after the whole batch is visible in the store.
+	 *
+	 * @param batch applied measurements in order of arrival
+	 */
+	void measurementsApplied(List<VariantMeasurement> batch);
+}
@@ -0,0 +1,226 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * TCP endpoint for remote {@link SewageTerminal}s, served by a single selector thread.
+ * <p>
+ * Clients send their measurements as {@link MeasurementCodec} records, one after the other and without waiting
+ * for replies. Whenever the server has read and submitted some records of a connection, it answers with the
+ * number of records received on that connection so far (a <code>long</code>), which acknowledges all of them at
+ * once. Acks that cannot be written right away are merged with the next one.
+ * <p>
+ * Records are submitted with {@link MeasurementSubmitter#submit(VariantMeasurement)}: if the RKI cannot keep
+ * up, the selector thread blocks and TCP pushes back on all clients. A record of an unknown plant or with an
+ * invalid length closes the connection without acknowledging it.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class MeasurementServer implements AutoCloseable {
+
+	public static final int DEFAULT_PORT = 4711;
+
+	/**
+	 * Largest accepted record, more than enough for any number of variants
+	 */
+	public static final int MAX_RECORD_SIZE = 64 * 1024;
+
+	private final MeasurementSubmitter rki;
+	private final IntFunction<SewagePlant> plants;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final Thread thread;
+
+	private final AtomicInteger connections = new AtomicInteger();
+	private final Counter received = MetricsRegistry.getDefault().counter("server.received");
+	private final Counter protocolErrors = MetricsRegistry.getDefault().counter("server.protocolErrors");
+
+	/**
+	 * @param rki     where received measurements are submitted to
+	 * @param plants  lookup of plants by id, clients have to use the same {@link PlantRegistry}
+	 * @param address address to listen on, port <code>0</code> picks a free port
+	 */
+	public MeasurementServer(MeasurementSubmitter rki, IntFunction<SewagePlant> plants, InetSocketAddress address) throws IOException {
+		this.rki = rki;
+		this.plants = plants;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(address);
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+		this.thread = new Thread(this::serve, "measurement-server");
+		this.thread.setDaemon(true);
+		MetricsRegistry.getDefault().gauge("server.connections", this.connections::get);
+	}
+
+	public void start() {
+		this.thread.start();
+	}
+
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) this.serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Stop listening and drop all connections, records not acknowledged yet may or may not have been submitted.
+	 * If the calling thread is interrupted meanwhile, the server is closed anyway and the interrupt is kept.
+	 */
+	@Override
+	public void close() throws IOException {
+		// the selector thread closes the client channels itself, that needs the selector still open
+		this.thread.interrupt();
+		this.selector.wakeup();
+		boolean interrupted = false;
+		while (this.thread.isAlive()) {
+			try {
+				this.thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		this.selector.close();
+		this.serverChannel.close();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void serve() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				this.selector.select();
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					try {
+						if (key.isAcceptable()) {
+							this.accept();
+						} else {
+							if (key.isReadable()) {
+								this.read(key);
+							}
+							if (key.isValid() && key.isWritable()) {
+								this.writeAck(key);
+							}
+						}
+					} catch (IOException | KloaCov2Exception e) {
+						this.disconnect(key);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				for (SelectionKey key :
+						this.selector.keys()) {
+					key.channel().close();
+				}
+			} catch (IOException e) {
+				// shutting down anyway
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = this.serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		channel.register(this.selector, SelectionKey.OP_READ, new Connection());
+		this.connections.incrementAndGet();
+	}
+
+	private void read(SelectionKey key) throws IOException, KloaCov2Exception, InterruptedException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		ByteBuffer in = connection.in;
+		if (channel.read(in) < 0) {
+			this.disconnect(key);
+			return;
+		}
+
+		in.flip();
+		long before = connection.received;
+		while (in.remaining() >= Integer.BYTES) {
+			int length = in.getInt(in.position());
+			if (length < MeasurementCodec.HEADER_SIZE || length > MAX_RECORD_SIZE) {
+				this.protocolErrors.increment();
+				throw new KloaCov2Exception("Invalid record length " + length);
+			}
+			if (in.remaining() < length) {
+				break;
+			}
+			VariantMeasurement meas = MeasurementCodec.decode(in, this.plants);
+			if (meas.getPlant() == null) {
+				this.protocolErrors.increment();
+				throw new KloaCov2Exception("Unknown plant");
+			}
+			this.rki.submit(meas);
+			connection.received++;
+		}
+		in.compact();
+
+		if (connection.received != before) {
+			this.received.add(connection.received - before);
+			this.writeAck(key);
+		}
+	}
+
+	/**
+	 * Write the current count of the connection, or wait until the channel is writable again
+	 */
+	private void writeAck(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		// a half written ack has to be finished first, the next one then carries the latest count
+		if (!connection.out.hasRemaining() && connection.acknowledged != connection.received) {
+			connection.out.clear();
+			connection.out.putLong(connection.received);
+			connection.out.flip();
+			connection.acknowledged = connection.received;
+		}
+		((SocketChannel) key.channel()).write(connection.out);
+		boolean pending = connection.out.hasRemaining() || connection.acknowledged != connection.received;
+		key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	private void disconnect(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// gone anyway
+		}
+		if (key.attachment() != null) {
+			this.connections.decrementAndGet();
+		}
+	}
+
+	/**
+	 * State of a client connection
+	 */
+	private static class Connection {
+		private final ByteBuffer in = ByteBuffer.allocate(2 * MAX_RECORD_SIZE);
+		private final ByteBuffer out = ByteBuffer.allocate(Long.BYTES).flip();
+		private long received = 0;
+		private long acknowledged = 0;
+	}
+}
@@ -0,0 +1,203 @@
+package main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Headless state of the RKI: the latest measurement of every plant together with the running aggregates.
+ * <p>
+ * The state may be updated and read from any number of threads. Without a journal, updates of different plants
+ * run in parallel; with a journal, applying and logging a batch is serialized to keep both in the same order.
+ * Readers never take a lock.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class MeasurementStore {
+
+	private Map<SewagePlant, VariantMeasurement> measurements = new ConcurrentHashMap<>();
+	private AggregateEngine aggregates = new AggregateEngine();
+	private DistributionStats distributions = new DistributionStats();
+	private SpatialAggregateTree regions = new SpatialAggregateTree();
+	private PlantRanking ranking = new PlantRanking();
+
+	private MeasurementJournal journal;
+
+	/**
+	 * Keeps the order in the journal equal to the order in which measurements were applied
+	 */
+	private final Object journalLock = new Object();
+
+	private List<MeasurementListener> listeners = new CopyOnWriteArrayList<>();
+
+	private final Counter journalErrors = MetricsRegistry.getDefault().counter("journal.errors");
+
+	/**
+	 * Create a store that does not log the measurements it receives
+	 */
+	public MeasurementStore() {
+		this(null);
+	}
+
+	public MeasurementStore(MeasurementJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return journal the store logs to, <code>null</code> if it does not log
+	 */
+	public MeasurementJournal getJournal() {
+		return this.journal;
+	}
+
+	public void addListener(MeasurementListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(MeasurementListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * Apply a batch of measurements, append it to the log and notify the listeners once for the whole batch.
+	 *
+	 * @param batch measurements in order of arrival
+	 */
+	public void receiveMeasurements(List<VariantMeasurement> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		if (this.journal == null) {
+			this.apply(batch);
+		} else {
+			synchronized (this.journalLock) {
+				this.apply(batch);
+				this.appendToLog(batch);
+			}
+		}
+
+		for (MeasurementListener l :
+				this.listeners) {
+			l.measurementsApplied(batch);
+		}
+	}
+
+	/**
+	 * Apply measurements recovered from the log without logging them again.
+	 *
+	 * @param batch latest measurement per plant
+	 */
+	public void restore(List<VariantMeasurement> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		this.apply(batch);
+
+		for (MeasurementListener l :
+				this.listeners) {
+			l.measurementsApplied(batch);
+		}
+	}
+
+	private void apply(List<VariantMeasurement> batch) {
+		for (VariantMeasurement meas :
+				batch) {
+			VariantMeasurement old = this.measurements.put(meas.getPlant(), meas);
+			this.aggregates.replace(old, meas);
+			this.distributions.replace(old, meas);
+			this.regions.replace(old, meas);
+		}
+		this.ranking.update(batch);
+	}
+
+	private void appendToLog(List<VariantMeasurement> batch) {
+		if (this.journal == null) {
+			return;
+		}
+		try {
+			this.journal.append(batch);
+		} catch (IOException e) {
+			this.journalErrors.increment();
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Take a consistent copy of the state for checkpointing, without stopping the ingest.
+	 * <p>
+	 * The journal position is read first: everything logged before it has already been applied, so the copied
+	 * measurements contain it. Measurements applied later may be contained as well, replaying them again from
+	 * the journal leads to the same state. The aggregates are computed from the copy, so they match it exactly.
+	 */
+	public StateSnapshot snapshot() {
+		long position = this.journal == null ? 0 : this.journal.getPosition();
+		List<VariantMeasurement> copy = new ArrayList<>(this.measurements.values());
+		AggregateEngine aggregates = new AggregateEngine();
+		for (VariantMeasurement meas :
+				copy) {
+			aggregates.replace(null, meas);
+		}
+		AggregateEngine.Totals totals = aggregates.snapshot();
+		List<Variant> variants = VariantRegistry.getDefault().values();
+		long[] sums = new long[variants.size()];
+		for (Variant v :
+				variants) {
+			sums[v.getId()] = totals.getSum(v);
+		}
+		return new StateSnapshot(position, copy, sums, totals.getCount(), totals.getTotalPopulation());
+	}
+
+	public VariantMeasurement getMeasurement(SewagePlant plant) {
+		return this.measurements.get(plant);
+	}
+
+	/**
+	 * @return consistent copy of the running aggregates
+	 */
+	public AggregateEngine.Totals getTotals() {
+		return this.aggregates.snapshot();
+	}
+
+	/**
+	 * @return running aggregates of the plants inside the rectangle (bounds included)
+	 */
+	public AggregateEngine.Totals getTotals(double minLon, double minLat, double maxLon, double maxLat) {
+		return this.regions.query(minLon, minLat, maxLon, maxLat);
+	}
+
+	/**
+	 * @return distribution (quantiles, weighted mean) of the latest measurements
+	 */
+	public DistributionStats getDistributions() {
+		return this.distributions;
+	}
+
+	/**
+	 * @return plants ordered by their latest measurement
+	 */
+	public PlantRanking getRanking() {
+		return this.ranking;
+	}
+
+	public double getAverage(Variant v) {
+		return this.aggregates.getAverage(v);
+	}
+
+	public Map<Variant, Double> getAverages() {
+		AggregateEngine.Totals totals = this.aggregates.snapshot();
+		Map<Variant, Double> averages = new HashMap<>();
+		for (Variant v :
+				VariantRegistry.getDefault().values()) {
+			averages.put(v, totals.getAverage(v));
+		}
+		return averages;
+	}
+
+	public long getTotalPopulation() {
+		return this.aggregates.getTotalPopulation();
+	}
+}
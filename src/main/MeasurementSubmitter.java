@@ -0,0 +1,25 @@
+package main;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where a {@link SewageTerminal} sends its measurements to: the RKI in the same JVM
+ * ({@link MeasurementIngestService}) or a remote one ({@link MeasurementClient}).
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public interface MeasurementSubmitter {
+	/**
+	 * Submit a measurement, waiting as long as necessary until it can be accepted.
+	 *
+	 * @throws KloaCov2Exception if measurements are not accepted any more
+	 */
+	void submit(VariantMeasurement meas) throws InterruptedException, KloaCov2Exception;
+
+	/**
+	 * Submit a measurement, waiting at most the given time until it can be accepted.
+	 *
+	 * @return <code>true</code> if the measurement was accepted
+	 */
+	boolean offer(VariantMeasurement meas, long timeout, TimeUnit unit) throws InterruptedException;
+}
@@ -0,0 +1,96 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named counters, gauges and histograms of the application, optionally exposed as MXBeans under
+ * <code>kloacov2:type=&lt;kind&gt;,name=&lt;name&gt;</code> (e.g. in JConsole).
+ * <p>
+ * Components look their metrics up once and keep them in a field; updating a metric afterwards neither locks nor
+ * allocates. Looking up an existing name returns the same metric, so several instances of a component share it.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+	private volatile MBeanServer server;
+
+	/**
+	 * @return the registry used by all components of the application
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	public Counter counter(String name) {
+		return this.get(name, Counter.class, Counter::new);
+	}
+
+	public Histogram histogram(String name) {
+		return this.get(name, Histogram.class, Histogram::new);
+	}
+
+	/**
+	 * Register a gauge, or let an existing gauge read its value from the new source
+	 */
+	public Gauge gauge(String name, LongSupplier source) {
+		Gauge gauge = this.get(name, Gauge.class, () -> new Gauge(source));
+		gauge.setSource(source);
+		return gauge;
+	}
+
+	/**
+	 * Expose all metrics, including the ones created later, in the platform MBean server
+	 */
+	public synchronized void registerMBeans() {
+		if (this.server != null) {
+			return;
+		}
+		this.server = ManagementFactory.getPlatformMBeanServer();
+		for (Map.Entry<String, Object> e :
+				this.metrics.entrySet()) {
+			this.register(e.getKey(), e.getValue());
+		}
+	}
+
+	private <T> T get(String name, Class<T> type, Supplier<T> factory) {
+		Object metric = this.metrics.get(name);
+		if (metric == null) {
+			synchronized (this) {
+				metric = this.metrics.get(name);
+				if (metric == null) {
+					metric = factory.get();
+					this.metrics.put(name, metric);
+					this.register(name, metric);
+				}
+			}
+		}
+		if (!type.isInstance(metric)) {
+			throw new IllegalArgumentException("Metric " + name + " is a " + metric.getClass().getSimpleName());
+		}
+		return type.cast(metric);
+	}
+
+	private void register(String name, Object metric) {
+		if (this.server == null) {
+			return;
+		}
+		try {
+			this.server.registerMBean(metric, new ObjectName("kloacov2:type="
+					+ metric.getClass().getSimpleName() + ",name=" + name));
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Plants ordered by their latest measurement: one sorted index per variant, one by total value and one by total
+ * value per capita.
+ * <p>
+ * An update moves the plant within every index, i.e. it costs O(log n) per index. Batches are applied once per
+ * plant. Reading the top <i>k</i> walks
+ * the first <i>k</i> entries of one index. Plants with a value of <code>0</code> are not indexed, so indexes of
+ * variants registered later start empty.
+ * <p>
+ * Writers lock all indexes, so a plant is never missing or listed twice. Readers share a read lock.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class PlantRanking {
+
+	/**
+	 * Total values per capita are given per this many inhabitants
+	 */
+	public static final int PER_CAPITA_BASE = 100_000;
+
+	/**
+	 * Position of a plant in an index
+	 */
+	public static class Entry {
+		private final SewagePlant plant;
+		private final double value;
+
+		/**
+		 * Copy of the plant id, so comparing entries does not have to load the plant
+		 */
+		private final int id;
+
+		private Entry(SewagePlant plant, double value) {
+			this.plant = plant;
+			this.value = value;
+			this.id = plant.getId();
+		}
+
+		public SewagePlant getPlant() {
+			return plant;
+		}
+
+		public double getValue() {
+			return value;
+		}
+	}
+
+	/**
+	 * Highest value first, ties in order of the plants
+	 */
+	private static final Comparator<Entry> ORDER = (a, b) -> {
+		int c = Double.compare(b.value, a.value);
+		if (c == 0) {
+			c = Integer.compare(a.id, b.id);
+		}
+		return c != 0 ? c : a.plant.getName().compareTo(b.plant.getName());
+	};
+
+	private static final int TOTAL = 0;
+	private static final int PER_CAPITA = 1;
+	private static final int FIRST_VARIANT = 2;
+
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * Total, per capita, then one index per variant id
+	 */
+	private final List<TreeSet<Entry>> indexes = new ArrayList<>();
+
+	/**
+	 * Current entries of every plant, same order as the indexes, to find them again on the next update
+	 */
+	private final Map<SewagePlant, Entry[]> entries = new HashMap<>();
+
+	public PlantRanking() {
+		this.grow(FIRST_VARIANT + VariantRegistry.getDefault().size());
+	}
+
+	private void grow(int size) {
+		while (this.indexes.size() < size) {
+			this.indexes.add(new TreeSet<>(ORDER));
+		}
+	}
+
+	/**
+	 * Move a plant to the positions of its new measurement
+	 */
+	public void update(VariantMeasurement meas) {
+		long stamp = this.lock.writeLock();
+		try {
+			this.move(meas);
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Move the plants of a batch to the positions of their last measurement in the batch. Earlier measurements of
+	 * the same plant are skipped, as they would be replaced right away.
+	 */
+	public void update(List<VariantMeasurement> batch) {
+		Set<SewagePlant> seen = new HashSet<>();
+		long stamp = this.lock.writeLock();
+		try {
+			for (int i = batch.size() - 1; i >= 0; i--) {
+				VariantMeasurement meas = batch.get(i);
+				if (seen.add(meas.getPlant())) {
+					this.move(meas);
+				}
+			}
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	private void move(VariantMeasurement meas) {
+		SewagePlant plant = meas.getPlant();
+		Entry[] current = this.entries.get(plant);
+		int size = Math.max(FIRST_VARIANT + meas.getValueCount(), current == null ? 0 : current.length);
+		this.grow(size);
+		Entry[] next = new Entry[size];
+		int population = plant.getPopulation();
+		this.move(TOTAL, plant, meas.getTotalValue(), current, next);
+		this.move(PER_CAPITA, plant,
+				population <= 0 ? 0 : (double) meas.getTotalValue() * PER_CAPITA_BASE / population, current, next);
+		for (int i = FIRST_VARIANT; i < size; i++) {
+			this.move(i, plant, meas.getValue(i - FIRST_VARIANT), current, next);
+		}
+		this.entries.put(plant, next);
+	}
+
+	private void move(int index, SewagePlant plant, double value, Entry[] current, Entry[] next) {
+		Entry old = current != null && index < current.length ? current[index] : null;
+		if (old != null && old.value == value) {
+			next[index] = old;
+			return;
+		}
+		TreeSet<Entry> set = this.indexes.get(index);
+		if (old != null) {
+			set.remove(old);
+		}
+		if (value > 0) {
+			next[index] = new Entry(plant, value);
+			set.add(next[index]);
+		}
+	}
+
+	/**
+	 * @return up to <code>k</code> plants with the highest values of the variant
+	 */
+	public List<Entry> top(Variant v, int k) {
+		return this.top(FIRST_VARIANT + v.getId(), k);
+	}
+
+	/**
+	 * @return up to <code>k</code> plants with the highest total values
+	 */
+	public List<Entry> topByTotal(int k) {
+		return this.top(TOTAL, k);
+	}
+
+	/**
+	 * @return up to <code>k</code> plants with the highest total values per {@link #PER_CAPITA_BASE} inhabitants
+	 */
+	public List<Entry> topPerCapita(int k) {
+		return this.top(PER_CAPITA, k);
+	}
+
+	private List<Entry> top(int index, int k) {
+		List<Entry> top = new ArrayList<>(Math.max(0, Math.min(k, 64)));
+		long stamp = this.lock.readLock();
+		try {
+			if (index >= this.indexes.size()) {
+				return top;
+			}
+			Iterator<Entry> it = this.indexes.get(index).iterator();
+			while (top.size() < k && it.hasNext()) {
+				top.add(it.next());
+			}
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+		return top;
+	}
+}
@@ -0,0 +1,248 @@
+package main;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable catalog of all sewage plants.
+ * <p>
+ * Plant ids are stored in the journal, in snapshots and sent over the network, so a plant must keep its id when
+ * plants.txt is edited. The ids are persisted in a file with one plant name per line, the id of a plant is its
+ * position in the file. Plants seen for the first time are appended to it. Lines must never be reordered or
+ * removed; the id of a plant removed from plants.txt stays reserved. Ids are small and mostly dense, so the rest of
+ * the pipeline can use them as array indices. Lookup by id and by name is O(1).
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class PlantRegistry {
+
+	public static final String DEFAULT_ID_FILE = "plant-ids.txt";
+
+	/**
+	 * Index = id, <code>null</code> for ids of plants that are not in the catalog any more
+	 */
+	private final SewagePlant[] plantsById;
+	private final List<SewagePlant> plants;
+	private final Map<String, SewagePlant> plantsByName;
+	private final List<String> errors;
+
+	private PlantRegistry(SewagePlant[] plantsById, Map<String, SewagePlant> plantsByName, List<String> errors) {
+		this.plantsById = plantsById;
+		List<SewagePlant> plants = new ArrayList<>();
+		for (SewagePlant p :
+				plantsById) {
+			if (p != null) {
+				plants.add(p);
+			}
+		}
+		this.plants = Collections.unmodifiableList(plants);
+		this.plantsByName = plantsByName;
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * Load the catalog with ids in file order that are not persisted, for tools that do not keep any state
+	 */
+	public static PlantRegistry load(Path file) throws IOException {
+		try {
+			return PlantRegistry.load(file, null);
+		} catch (KloaCov2Exception e) {
+			// there is no id file to be invalid
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Load the catalog from a file with one plant per line (<code>name;population;longitude;latitude</code>).
+	 * The file is split into chunks which are parsed in parallel. Lines that cannot be parsed and duplicate
+	 * names are reported in {@link #getErrors()} and skipped, they do not get an id.
+	 *
+	 * @param idFile ids of the plants, created if it does not exist; <code>null</code> for ids in file order
+	 * @throws KloaCov2Exception if the id file lists a name twice or has an empty line, as the ids of all
+	 *                           following plants would be wrong
+	 */
+	public static PlantRegistry load(Path file, Path idFile) throws IOException, KloaCov2Exception {
+		List<Chunk> chunks;
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			List<Long> bounds = LineChunks.split(ch);
+			chunks = IntStream.range(0, bounds.size() - 1)
+					.parallel()
+					.mapToObj(i -> parseChunk(ch, bounds.get(i), bounds.get(i + 1)))
+					.collect(Collectors.toList());
+		}
+
+		List<String> names = idFile == null ? new ArrayList<>() : PlantRegistry.readIds(idFile);
+		Map<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < names.size(); i++) {
+			ids.put(names.get(i), i);
+		}
+		int known = names.size();
+
+		List<SewagePlant> plants = new ArrayList<>();
+		Map<String, SewagePlant> plantsByName = new HashMap<>();
+		SortedMap<Integer, String> errors = new TreeMap<>();
+		int firstLine = 1;
+		for (Chunk chunk :
+				chunks) {
+			if (chunk.failure != null) {
+				throw chunk.failure;
+			}
+			for (int i = 0; i < chunk.plants.size(); i++) {
+				SewagePlant p = chunk.plants.get(i);
+				int line = firstLine + chunk.lines.get(i);
+				if (plantsByName.containsKey(p.getName())) {
+					errors.put(line, "duplicate plant " + p.getName());
+					continue;
+				}
+				Integer id = ids.get(p.getName());
+				if (id == null) {
+					id = names.size();
+					names.add(p.getName());
+					ids.put(p.getName(), id);
+				}
+				try {
+					p = new SewagePlant(id, p.getName(), p.getPopulation(), p.getLongitude(), p.getLatitude());
+				} catch (KloaCov2Exception e) {
+					// already validated while parsing
+					throw new IllegalStateException(e);
+				}
+				plants.add(p);
+				plantsByName.put(p.getName(), p);
+			}
+			for (int i = 0; i < chunk.errors.size(); i++) {
+				errors.put(firstLine + chunk.errorLines.get(i), chunk.errors.get(i));
+			}
+			firstLine += chunk.lineCount;
+		}
+		if (idFile != null && names.size() > known) {
+			Files.write(idFile, names.subList(known, names.size()), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+
+		SewagePlant[] plantsById = new SewagePlant[names.size()];
+		for (SewagePlant p :
+				plants) {
+			plantsById[p.getId()] = p;
+		}
+		List<String> messages = new ArrayList<>();
+		for (Map.Entry<Integer, String> e :
+				errors.entrySet()) {
+			messages.add("Line " + e.getKey() + ": " + e.getValue());
+		}
+		return new PlantRegistry(plantsById, Collections.unmodifiableMap(plantsByName), messages);
+	}
+
+	/**
+	 * @return names in order of their ids, empty if the file does not exist yet
+	 */
+	private static List<String> readIds(Path idFile) throws IOException, KloaCov2Exception {
+		List<String> names;
+		try {
+			names = Files.readAllLines(idFile, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return new ArrayList<>();
+		}
+		Set<String> seen = new HashSet<>();
+		for (int i = 0; i < names.size(); i++) {
+			String name = names.get(i);
+			if (name.trim().isEmpty()) {
+				throw new KloaCov2Exception(idFile + ", line " + (i + 1) + ": empty plant name");
+			}
+			if (!seen.add(name)) {
+				throw new KloaCov2Exception(idFile + ", line " + (i + 1) + ": duplicate plant " + name);
+			}
+		}
+		return names;
+	}
+
+	private static Chunk parseChunk(FileChannel ch, long start, long end) {
+		Chunk chunk = new Chunk();
+		String text;
+		try {
+			text = LineChunks.read(ch, start, end);
+		} catch (IOException e) {
+			chunk.failure = e;
+			return chunk;
+		}
+		int lineStart = 0;
+		while (lineStart < text.length()) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if (lineEnd < 0) {
+				lineEnd = text.length();
+			}
+			String line = text.substring(lineStart, lineEnd).trim();
+			if (!line.isEmpty()) {
+				try {
+					chunk.plants.add(KloaCov2.parsePlant(-1, line));
+					chunk.lines.add(chunk.lineCount);
+				} catch (KloaCov2Exception e) {
+					chunk.errorLines.add(chunk.lineCount);
+					chunk.errors.add(e.getMessage());
+				}
+			}
+			chunk.lineCount++;
+			lineStart = lineEnd + 1;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Result of parsing one chunk, line numbers are relative to the chunk
+	 */
+	private static class Chunk {
+		private final List<SewagePlant> plants = new ArrayList<>();
+		private final List<Integer> lines = new ArrayList<>();
+		private final List<Integer> errorLines = new ArrayList<>();
+		private final List<String> errors = new ArrayList<>();
+		private int lineCount = 0;
+		private IOException failure;
+	}
+
+	/**
+	 * @return plant with the id or <code>null</code> if there is none
+	 */
+	public SewagePlant getPlant(int id) {
+		return id >= 0 && id < this.plantsById.length ? this.plantsById[id] : null;
+	}
+
+	/**
+	 * @return plant with the name or <code>null</code> if there is none
+	 */
+	public SewagePlant getPlant(String name) {
+		return this.plantsByName.get(name);
+	}
+
+	/**
+	 * @return all plants in order of their ids
+	 */
+	public List<SewagePlant> getPlants() {
+		return this.plants;
+	}
+
+	public int size() {
+		return this.plants.size();
+	}
+
+	/**
+	 * @return descriptions of the lines that were skipped while loading
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+}
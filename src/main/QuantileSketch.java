@@ -0,0 +1,130 @@
+package main;
+
+/**
+ * Mergeable quantile sketch for non-negative values with constant memory.
+ * <p>
+ * Values are counted in logarithmic buckets (like DDSketch): bucket <i>i</i> covers
+ * (&gamma;<sup>i-1</sup>, &gamma;<sup>i</sup>], so every quantile is returned with a relative error of at most
+ * {@link #RELATIVE_ACCURACY}. Unlike most sketches, values can also be removed again, which is used to keep the
+ * distribution of the <i>latest</i> measurement per plant when a plant reports a new one.
+ * Not thread-safe.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class QuantileSketch {
+
+	public static final double RELATIVE_ACCURACY = 0.01;
+
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+
+	/**
+	 * Enough buckets for every positive int
+	 */
+	private static final int BUCKETS = bucketOf(Integer.MAX_VALUE) + 1;
+
+	private final long[] counts = new long[BUCKETS];
+	private long zeroCount = 0;
+	private long count = 0;
+
+	private static int bucketOf(int value) {
+		return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+	}
+
+	/**
+	 * Add a value, negative values count as <code>0</code>
+	 */
+	public void add(int value) {
+		this.add(value, 1);
+	}
+
+	/**
+	 * Remove a value that was added before
+	 */
+	public void remove(int value) {
+		this.add(value, -1);
+	}
+
+	/**
+	 * Add a value <code>n</code> times
+	 */
+	public void add(int value, long n) {
+		if (value <= 0) {
+			this.zeroCount += n;
+		} else {
+			this.counts[bucketOf(value)] += n;
+		}
+		this.count += n;
+	}
+
+	/**
+	 * Add all values of another sketch to this one
+	 */
+	public void merge(QuantileSketch other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.counts[i] += other.counts[i];
+		}
+		this.zeroCount += other.zeroCount;
+		this.count += other.count;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param q quantile between <code>0</code> and <code>1</code>, e.g. <code>0.5</code> for the median
+	 * @return estimated value of the quantile, <code>0</code> if the sketch is empty
+	 */
+	public double getQuantile(double q) {
+		if (this.count == 0) {
+			return 0;
+		}
+		long rank = (long) (q * (this.count - 1));
+		long seen = this.zeroCount;
+		if (rank < seen) {
+			return 0;
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.counts[i];
+			if (rank < seen) {
+				return this.valueOf(i);
+			}
+		}
+		return this.getMax();
+	}
+
+	/**
+	 * @return estimated smallest value
+	 */
+	public double getMin() {
+		if (this.zeroCount > 0 || this.count == 0) {
+			return 0;
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			if (this.counts[i] > 0) {
+				return this.valueOf(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return estimated largest value
+	 */
+	public double getMax() {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (this.counts[i] > 0) {
+				return this.valueOf(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return representative value of a bucket, within the relative accuracy of all its values
+	 */
+	private double valueOf(int bucket) {
+		return 2 * Math.pow(GAMMA, bucket) / (GAMMA + 1);
+	}
+}
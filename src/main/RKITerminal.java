@@ -2,7 +2,10 @@ package main;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -10,109 +13,309 @@ import java.util.*;
  */
 public class RKITerminal extends JFrame {
 
-	private Map<SewagePlant, VariantMeasurement> measurements = new HashMap<>();
+	/**
+	 * Length of the ranking shown
+	 */
+	private static final int TOP_PLANTS = 20;
+
+	/**
+	 * Time range of the history shown for a plant, and the most rows shown of it
+	 */
+	private static final long HISTORY_MILLIS = 24 * 60 * 60 * 1000;
+	private static final int HISTORY_ROWS = 200;
+
+	private static final String RANKING_TOTAL = "Total";
+	private static final String RANKING_PER_CAPITA = "Total per " + PlantRanking.PER_CAPITA_BASE + " inhabitants";
+
+	private MeasurementStore store;
 
 	private JLabel lblTotalPopulation = new JLabel();
+	private JLabel lblSelection = new JLabel();
+	private JLabel lblAlert = new JLabel();
+	private JCheckBox chkHeatmap = new JCheckBox("Heatmap");
+	private JButton btnAddVariant = new JButton("Add variant");
 	private HashMap<Variant, JLabel> mapLabels = new HashMap<>();
+	private JComboBox<Object> cmbRanking = new JComboBox<>(new Object[]{RANKING_PER_CAPITA, RANKING_TOTAL});
+	private DefaultListModel<String> rankingModel = new DefaultListModel<>();
+
+	/**
+	 * Plants of the rows of the ranking
+	 */
+	private java.util.List<SewagePlant> rankingPlants = new ArrayList<>();
+
+	private TimeSeriesStore history;
+	private RollupStore rollups;
+
+	/**
+	 * Active alerts per plant, a plant is ringed on the map while it has any
+	 */
+	private HashMap<SewagePlant, Integer> activeAlerts = new HashMap<>();
 
 	private JPanel panelNorth = new JPanel();
 	private BWMap map = new BWMap();
 
-	public RKITerminal() {
-		this.setTitle("RKI (Overview BW)");
-
+	private UiUpdateCoalescer updates;
 
-		// create labels for total count
-		for (Variant v :
-				Variant.values()) {
-			this.mapLabels.put(v, new JLabel());
-		}
+	public RKITerminal(MeasurementStore store) {
+		this.store = store;
+		this.setTitle("RKI (Overview BW)");
 
 
-		this.panelNorth.setLayout(new GridLayout(Variant.values().length + 1, 2, 5, 5));
-		this.lblTotalPopulation.setText("Population measured: " + this.getTotalPopulation());
+		this.panelNorth.setLayout(new GridLayout(0, 2, 5, 5));
+		this.lblTotalPopulation.setText("Population measured: " + this.store.getTotalPopulation());
 		this.panelNorth.add(lblTotalPopulation);
 		this.panelNorth.add(new JLabel(""));
-		HashMap<Variant, Double> averages = new HashMap<>();
-		for (Variant v :
-				Variant.values()) {
-			int sum = 0;
-			int count = 0;
-			for (SewagePlant p :
-					this.measurements.keySet()) {
-				count++;
-				sum += this.measurements.get(p).getMeasurements().get(v);
-			}
-			double average = 0;
-			if (sum != 0) {
-				average = (double) sum / count;
-			}
-			averages.put(v, average);
-		}
+		Map<Variant, Double> averages = this.store.getAverages();
 
-		ArrayList<Variant> sortedKeys = new ArrayList<>(Arrays.asList(Variant.values()));
-		Collections.sort(sortedKeys);
+		// in order of the ids
 		for (Variant v :
-				sortedKeys) {
-			JLabel labelName = new JLabel(v.toString());
-			this.panelNorth.add(labelName);
-			System.out.println(averages.get(v));
+				VariantRegistry.getDefault().values()) {
+			this.addVariant(v);
 			this.mapLabels.get(v).setText(String.valueOf(averages.get(v)));
-			this.panelNorth.add(this.mapLabels.get(v));
 		}
+		VariantRegistry.getDefault().addListener(v -> SwingUtilities.invokeLater(() -> this.addVariant(v)));
 		this.add(panelNorth, BorderLayout.NORTH);
 
 		this.add(map);
+		JPanel panelEast = new JPanel(new BorderLayout(5, 5));
+		panelEast.add(this.cmbRanking, BorderLayout.NORTH);
+		JList<String> listRanking = new JList<>(this.rankingModel);
+		listRanking.setPrototypeCellValue("20. Graben-Neudorf/Dettenheim: 12345.6");
+		listRanking.setVisibleRowCount(TOP_PLANTS);
+		listRanking.setToolTipText("Double-click for the history of a plant");
+		listRanking.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				int row = listRanking.locationToIndex(e.getPoint());
+				if (e.getClickCount() == 2 && row >= 0 && row < RKITerminal.this.rankingPlants.size()) {
+					RKITerminal.this.showHistory(RKITerminal.this.rankingPlants.get(row));
+				}
+			}
+		});
+		panelEast.add(new JScrollPane(listRanking), BorderLayout.CENTER);
+		this.cmbRanking.addActionListener(e -> this.showRanking());
+		this.add(panelEast, BorderLayout.EAST);
+		this.showRanking();
+		JPanel panelSouth = new JPanel(new BorderLayout());
+		panelSouth.add(this.lblSelection, BorderLayout.CENTER);
+		panelSouth.add(this.chkHeatmap, BorderLayout.EAST);
+		panelSouth.add(this.btnAddVariant, BorderLayout.WEST);
+		this.lblAlert.setForeground(Color.RED);
+		panelSouth.add(this.lblAlert, BorderLayout.NORTH);
+		this.btnAddVariant.addActionListener(e -> this.registerVariant());
+		this.chkHeatmap.addActionListener(e -> this.map.setHeatmapEnabled(this.chkHeatmap.isSelected()));
+		this.add(panelSouth, BorderLayout.SOUTH);
+		this.map.addSelectionListener(area -> this.showSelection());
+		this.showSelection();
 
+		this.updates = new UiUpdateCoalescer(store, UiUpdateCoalescer.DEFAULT_UPDATES_PER_SECOND, this::showSnapshot);
+		this.store.addListener(this.updates);
+		this.updates.start();
 
 		this.pack();
 		this.setVisible(true);
 		this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 	}
 
-	private int getTotalPopulation() {
-		int sum = 0;
-		for (SewagePlant p :
-				this.measurements.keySet()) {
-			sum += p.getPopulation();
+	private void showSnapshot(UiUpdateCoalescer.Snapshot snapshot) {
+		this.lblTotalPopulation.setText("Population measured: " + snapshot.getTotalPopulation());
+
+		for (Variant v :
+				snapshot.getAverages().keySet()) {
+			// the snapshot may be ahead of the listener of the registry
+			this.addVariant(v);
+			DistributionStats.Summary d = snapshot.getDistributions().get(v);
+			this.mapLabels.get(v).setText(String.format("%.2f (median %.0f, p90 %.0f, p99 %.0f)",
+					snapshot.getAverages().get(v), d.getMedian(), d.getP90(), d.getP99()));
 		}
-		return sum;
-	}
 
-	public void receiveMeasurements(VariantMeasurement meas) {
-		this.measurements.put(meas.getPlant(), meas);
-		this.lblTotalPopulation.setText("Population measured: " + this.getTotalPopulation());
+		for (Map.Entry<SewagePlant, Integer> e :
+				snapshot.getMarkerValues().entrySet()) {
+			this.map.setMapItem(e.getKey(), e.getValue());
+		}
+		this.showSelection();
+		this.showRanking();
+	}
 
-		HashMap<Variant, Double> averages = new HashMap<>();
+	/**
+	 * Show the aggregates of the area selected in the map (the whole map if nothing is selected)
+	 */
+	private void showSelection() {
+		Rectangle2D area = this.map.getSelectedArea();
+		AggregateEngine.Totals totals = this.store.getTotals(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+		StringBuilder text = new StringBuilder(String.format("Selected area: %d plants, population %d",
+				totals.getCount(), totals.getTotalPopulation()));
 		for (Variant v :
-				Variant.values()) {
-			int sum = 0;
-			int count = 0;
-			for (SewagePlant p :
-					this.measurements.keySet()) {
-				count++;
-				sum += this.measurements.get(p).getMeasurements().get(v);
+				VariantRegistry.getDefault().values()) {
+			text.append(String.format(", %s %.2f", v.getName(), totals.getAverage(v)));
+		}
+		this.lblSelection.setText(text.toString());
+	}
+
+	/**
+	 * Show the top plants of the ranking selected in the combo box, only changed rows are replaced
+	 */
+	private void showRanking() {
+		Object selected = this.cmbRanking.getSelectedItem();
+		PlantRanking ranking = this.store.getRanking();
+		java.util.List<PlantRanking.Entry> top = selected instanceof Variant ? ranking.top((Variant) selected, TOP_PLANTS)
+				: RANKING_TOTAL.equals(selected) ? ranking.topByTotal(TOP_PLANTS) : ranking.topPerCapita(TOP_PLANTS);
+		this.rankingPlants.clear();
+		for (int i = 0; i < top.size(); i++) {
+			this.rankingPlants.add(top.get(i).getPlant());
+			String text = String.format("%2d. %s: %.1f", i + 1, top.get(i).getPlant().getName(), top.get(i).getValue());
+			if (i >= this.rankingModel.size()) {
+				this.rankingModel.addElement(text);
+			} else if (!this.rankingModel.get(i).equals(text)) {
+				this.rankingModel.set(i, text);
+			}
+		}
+		while (this.rankingModel.size() > top.size()) {
+			this.rankingModel.remove(this.rankingModel.size() - 1);
+		}
+	}
+
+	/**
+	 * Let the user open the history of the plants in the ranking
+	 */
+	public void setHistory(TimeSeriesStore history, RollupStore rollups) {
+		this.history = history;
+		this.rollups = rollups;
+	}
+
+	/**
+	 * Show the latest measurements of a plant within {@link #HISTORY_MILLIS}, newest first, and its hourly
+	 * averages
+	 */
+	private void showHistory(SewagePlant plant) {
+		if (this.history == null) {
+			return;
+		}
+		long to = System.currentTimeMillis() + 1;
+		long from = to - HISTORY_MILLIS;
+		java.util.List<Variant> variants = VariantRegistry.getDefault().values();
+		// every sample has a value of every variant, so the n-th value of each variant belongs to the n-th sample
+		java.util.List<Long> timestamps = new ArrayList<>();
+		java.util.List<java.util.List<Integer>> values = new ArrayList<>();
+		try {
+			for (Variant v :
+					variants) {
+				java.util.List<Integer> column = new ArrayList<>();
+				this.history.forEach(plant, v, from, to, (timestamp, value) -> {
+					if (v.getId() == 0) {
+						timestamps.add(timestamp);
+					}
+					column.add(value);
+				});
+				values.add(column);
 			}
-			double average = (double) sum / count;
-			averages.put(v, average);
+		} catch (IOException | KloaCov2Exception e) {
+			JOptionPane.showMessageDialog(this, "History of " + plant.getName() + " not readable: " + e.getMessage());
+			return;
 		}
 
+		String[] header = new String[variants.size() + 1];
+		header[0] = "Time";
 		for (Variant v :
-				averages.keySet()) {
-			this.mapLabels.get(v).setText(String.format("%.2f", averages.get(v)));
+				variants) {
+			header[v.getId() + 1] = v.getName();
 		}
+		int rows = Math.min(HISTORY_ROWS, timestamps.size());
+		Object[][] data = new Object[rows][header.length];
+		for (int r = 0; r < rows; r++) {
+			int sample = timestamps.size() - 1 - r;
+			data[r][0] = String.format("%tF %<tT", new Date(timestamps.get(sample)));
+			for (int v = 0; v < variants.size(); v++) {
+				data[r][v + 1] = sample < values.get(v).size() ? values.get(v).get(sample) : 0;
+			}
+		}
+		JTabbedPane tabs = new JTabbedPane();
+		tabs.addTab("Measurements", RKITerminal.table(data, header));
 
-		this.map.setMapItem(meas.getPlant(), meas.getTotalValue());
+		if (this.rollups != null) {
+			header[0] = "Hour";
+			long length = RollupGranularity.HOURLY.getLength();
+			long last = RollupGranularity.HOURLY.bucketOf(to);
+			java.util.List<Object[]> hours = new ArrayList<>();
+			for (long hour = last; hour > from - length; hour -= length) {
+				RollupBucket b = this.rollups.query(RollupGranularity.HOURLY, plant, hour, hour + length);
+				if (b.getCount() == 0) {
+					continue;
+				}
+				Object[] row = new Object[header.length];
+				row[0] = String.format("%tF %<tH:00 (%d)", new Date(hour), b.getCount());
+				for (Variant v :
+						variants) {
+					row[v.getId() + 1] = String.format("%.1f", b.getAverage(v));
+				}
+				hours.add(row);
+			}
+			tabs.addTab("Hourly averages", RKITerminal.table(hours.toArray(new Object[0][]), header));
+		}
+		JOptionPane.showMessageDialog(this, tabs, String.format("%s: %d measurements in the last 24 hours",
+				plant.getName(), timestamps.size()), JOptionPane.PLAIN_MESSAGE);
+	}
 
+	private static JScrollPane table(Object[][] data, String[] header) {
+		JTable table = new JTable(data, header.clone());
+		table.setEnabled(false);
+		JScrollPane scroll = new JScrollPane(table);
+		scroll.setPreferredSize(new Dimension(600, 400));
+		return scroll;
+	}
 
-		// save to file
-		try (PrintWriter p = new PrintWriter(new FileWriter("ppp-logs.txt", true))) {
-			String line = meas.getPlant().getName() +
-					" (" + meas.getDate().toString() + "): " +
-					meas.getMeasurements();
-			p.println(line);
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Show a raised or cleared alert, may be called on any thread
+	 */
+	public void showAlert(Alert alert) {
+		SwingUtilities.invokeLater(() -> {
+			SewagePlant plant = alert.getPlant();
+			int count = this.activeAlerts.getOrDefault(plant, 0) + (alert.isRaised() ? 1 : -1);
+			if (count > 0) {
+				this.activeAlerts.put(plant, count);
+			} else {
+				this.activeAlerts.remove(plant);
+			}
+			this.map.setAlerted(plant, count > 0);
+			if (alert.isRaised()) {
+				this.lblAlert.setText(alert.toString());
+			}
+		});
+	}
+
+	/**
+	 * Add a row for a variant, also used for variants registered while the terminal is open
+	 */
+	private void addVariant(Variant v) {
+		if (this.mapLabels.containsKey(v)) {
+			return;
+		}
+		JLabel labelValue = new JLabel();
+		this.mapLabels.put(v, labelValue);
+		this.cmbRanking.addItem(v);
+		this.panelNorth.add(new JLabel(v.toString()));
+		this.panelNorth.add(labelValue);
+		this.panelNorth.revalidate();
+	}
+
+	/**
+	 * Ask for a new lineage and register it, all terminals of this JVM get a row for it
+	 */
+	private void registerVariant() {
+		JTextField name = new JTextField();
+		JTextField designation = new JTextField();
+		JPanel panel = new JPanel(new GridLayout(2, 2, 5, 5));
+		panel.add(new JLabel("Name"));
+		panel.add(name);
+		panel.add(new JLabel("Designation"));
+		panel.add(designation);
+		if (JOptionPane.showConfirmDialog(this, panel, "Add variant", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+			return;
+		}
+		try {
+			VariantRegistry.getDefault().register(name.getText().trim(), designation.getText().trim());
+		} catch (KloaCov2Exception e) {
+			JOptionPane.showMessageDialog(this, e.getMessage());
 		}
 	}
 }
@@ -0,0 +1,25 @@
+package main;
+
+/**
+ * Administrative districts (Regierungsbezirke) of Baden-W&uuml;rttemberg.
+ * The borders are a <i>very</i> rough approximation: the state is split into quadrants.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public enum Region {
+	KARLSRUHE,
+	STUTTGART,
+	FREIBURG,
+	TUEBINGEN;
+
+	private static final double SPLIT_LONGITUDE = 9.0;
+	private static final double SPLIT_LATITUDE = 48.45;
+
+	public static Region of(MapItem item) {
+		boolean east = item.getLongitude() >= SPLIT_LONGITUDE;
+		if (item.getLatitude() >= SPLIT_LATITUDE) {
+			return east ? STUTTGART : KARLSRUHE;
+		}
+		return east ? TUEBINGEN : FREIBURG;
+	}
+}
@@ -0,0 +1,40 @@
+package main;
+
+/**
+ * How long the {@link MeasurementJournal} keeps closed segments.
+ * <p>
+ * Segments are deleted oldest first while the journal takes more than <code>maxBytes</code> on disk or while
+ * their newest measurement is older than <code>maxAgeMillis</code>. A limit of <code>0</code> disables it.
+ * Segments still needed to recover from the latest snapshot are never deleted.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class RetentionPolicy {
+
+	public static final RetentionPolicy KEEP_ALL = new RetentionPolicy(0, 0);
+
+	private final long maxBytes;
+	private final long maxAgeMillis;
+
+	public RetentionPolicy(long maxBytes, long maxAgeMillis) {
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	/**
+	 * @return whether a segment of the given age has to be deleted, <code>totalBytes</code> being the size of the
+	 * whole journal
+	 */
+	public boolean isExpired(long totalBytes, long newestTimestamp, long now) {
+		return (this.maxBytes > 0 && totalBytes > this.maxBytes)
+				|| (this.maxAgeMillis > 0 && newestTimestamp < now - this.maxAgeMillis);
+	}
+}
@@ -0,0 +1,118 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates of all samples within one time bucket: count, and per variant sum, min, max and the
+ * population-weighted sum. The arrays grow with the first sample of a variant registered later, the samples
+ * before it count with <code>0</code>.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class RollupBucket {
+
+	private long count = 0;
+	private long population = 0;
+	private long[] sums;
+	private long[] weightedSums;
+	private int[] min;
+	private int[] max;
+
+	public RollupBucket() {
+		int variants = VariantRegistry.getDefault().size();
+		this.sums = new long[variants];
+		this.weightedSums = new long[variants];
+		this.min = new int[variants];
+		this.max = new int[variants];
+		Arrays.fill(this.min, Integer.MAX_VALUE);
+		Arrays.fill(this.max, Integer.MIN_VALUE);
+	}
+
+	private void grow(int variants) {
+		if (variants <= this.sums.length) {
+			return;
+		}
+		int known = this.sums.length;
+		this.sums = Arrays.copyOf(this.sums, variants);
+		this.weightedSums = Arrays.copyOf(this.weightedSums, variants);
+		this.min = Arrays.copyOf(this.min, variants);
+		this.max = Arrays.copyOf(this.max, variants);
+		if (this.count == 0) {
+			Arrays.fill(this.min, known, variants, Integer.MAX_VALUE);
+			Arrays.fill(this.max, known, variants, Integer.MIN_VALUE);
+		}
+	}
+
+	public void add(VariantMeasurement meas) {
+		this.grow(meas.getValueCount());
+		int population = meas.getPlant().getPopulation();
+		this.count++;
+		this.population += population;
+		for (int i = 0; i < this.sums.length; i++) {
+			int value = meas.getValue(i);
+			this.sums[i] += value;
+			this.weightedSums[i] += (long) value * population;
+			this.min[i] = Math.min(this.min[i], value);
+			this.max[i] = Math.max(this.max[i], value);
+		}
+	}
+
+	/**
+	 * Add all samples of another bucket to this one
+	 */
+	public void merge(RollupBucket other) {
+		this.grow(other.sums.length);
+		this.count += other.count;
+		this.population += other.population;
+		for (int i = 0; i < other.sums.length; i++) {
+			this.sums[i] += other.sums[i];
+			this.weightedSums[i] += other.weightedSums[i];
+			this.min[i] = Math.min(this.min[i], other.min[i]);
+			this.max[i] = Math.max(this.max[i], other.max[i]);
+		}
+		if (other.count > 0) {
+			// the other samples did not measure the variants behind, i.e. they count with 0
+			for (int i = other.sums.length; i < this.sums.length; i++) {
+				this.min[i] = Math.min(this.min[i], 0);
+				this.max[i] = Math.max(this.max[i], 0);
+			}
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum(Variant v) {
+		return v.getId() < this.sums.length ? this.sums[v.getId()] : 0;
+	}
+
+	/**
+	 * @return smallest value, {@link Integer#MAX_VALUE} if the bucket is empty
+	 */
+	public int getMin(Variant v) {
+		return v.getId() < this.min.length ? this.min[v.getId()] : this.count == 0 ? Integer.MAX_VALUE : 0;
+	}
+
+	/**
+	 * @return largest value, {@link Integer#MIN_VALUE} if the bucket is empty
+	 */
+	public int getMax(Variant v) {
+		return v.getId() < this.max.length ? this.max[v.getId()] : this.count == 0 ? Integer.MIN_VALUE : 0;
+	}
+
+	public double getAverage(Variant v) {
+		return this.count == 0 ? 0 : (double) this.getSum(v) / this.count;
+	}
+
+	/**
+	 * @return average of the samples weighted by the population of their plants
+	 */
+	public double getWeightedAverage(Variant v) {
+		return this.population == 0 ? 0 : (double) this.getWeightedSum(v) / this.population;
+	}
+
+	public long getWeightedSum(Variant v) {
+		return v.getId() < this.weightedSums.length ? this.weightedSums[v.getId()] : 0;
+	}
+}
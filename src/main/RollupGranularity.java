@@ -0,0 +1,42 @@
+package main;
+
+/**
+ * Size of the time buckets of a {@link RollupStore} and how long they are kept. Buckets are aligned in UTC, weeks
+ * start on Monday.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public enum RollupGranularity {
+	HOURLY(60L * 60 * 1000, 0, 7),
+	DAILY(24L * 60 * 60 * 1000, 0, 366),
+	// 1970-01-01 was a Thursday, shift by three days to start weeks on Monday
+	WEEKLY(7L * 24 * 60 * 60 * 1000, 3L * 24 * 60 * 60 * 1000, 2 * 366);
+
+	private long length;
+	private long offset;
+	private long retention;
+
+	RollupGranularity(long length, long offset, int retentionDays) {
+		this.length = length;
+		this.offset = offset;
+		this.retention = retentionDays * 24L * 60 * 60 * 1000;
+	}
+
+	/**
+	 * @return start of the bucket containing the timestamp (epoch millis)
+	 */
+	public long bucketOf(long timestamp) {
+		return Math.floorDiv(timestamp + this.offset, this.length) * this.length - this.offset;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return how long buckets are kept, counted back from the newest bucket
+	 */
+	public long getRetention() {
+		return retention;
+	}
+}
@@ -0,0 +1,185 @@
+package main;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * Hourly, daily and weekly rollups per plant and for the whole state, updated with every ingested sample.
+ * Every granularity keeps its buckets for {@link RollupGranularity#getRetention()}, older ones are dropped when a
+ * new bucket starts. Rollups are not part of the snapshots: on startup, {@link #load()} rebuilds them from the
+ * journal segments within the longest retention.
+ * <p>
+ * A query over a time range only merges the buckets inside it, so a trend over months touches a few dozen
+ * daily or weekly buckets instead of every raw sample.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class RollupStore implements MeasurementListener {
+
+	private final Map<RollupGranularity, NavigableMap<Long, RollupBucket>> stateWide = new EnumMap<>(RollupGranularity.class);
+	private final Map<RollupGranularity, NavigableMap<Long, RollupBucket>[]> perPlant = new EnumMap<>(RollupGranularity.class);
+
+	/**
+	 * Start of the newest bucket per granularity
+	 */
+	private final Map<RollupGranularity, Long> newest = new EnumMap<>(RollupGranularity.class);
+
+	private final MeasurementJournal journal;
+	private final IntFunction<SewagePlant> plants;
+
+	/**
+	 * Rollups of the samples ingested from now on, without a journal behind them
+	 */
+	public RollupStore() {
+		this(null, null);
+	}
+
+	/**
+	 * @param journal journal to rebuild the rollups from, may be <code>null</code>
+	 * @param plants  lookup of plants by id for the journal
+	 */
+	@SuppressWarnings("unchecked")
+	public RollupStore(MeasurementJournal journal, IntFunction<SewagePlant> plants) {
+		this.journal = journal;
+		this.plants = plants;
+		for (RollupGranularity g :
+				RollupGranularity.values()) {
+			this.stateWide.put(g, new TreeMap<>());
+			this.perPlant.put(g, (NavigableMap<Long, RollupBucket>[]) new NavigableMap<?, ?>[0]);
+			this.newest.put(g, Long.MIN_VALUE);
+		}
+	}
+
+	/**
+	 * Rebuild the rollups within their retention from the journal. Has to be called before the store is
+	 * registered as listener.
+	 */
+	public void load() throws IOException, KloaCov2Exception {
+		if (this.journal == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long from = now;
+		for (RollupGranularity g :
+				RollupGranularity.values()) {
+			from = Math.min(from, g.bucketOf(now - g.getRetention()));
+		}
+		this.journal.readRange(from, Long.MAX_VALUE, this.plants, this::add);
+	}
+
+	@Override
+	public void measurementsApplied(List<VariantMeasurement> batch) {
+		for (VariantMeasurement meas :
+				batch) {
+			this.add(meas);
+		}
+	}
+
+	public synchronized void add(VariantMeasurement meas) {
+		int id = meas.getPlant().getId();
+		for (RollupGranularity g :
+				RollupGranularity.values()) {
+			long bucket = g.bucketOf(meas.getTimestamp());
+			long newest = Math.max(this.newest.get(g), bucket);
+			this.newest.put(g, newest);
+			long expired = newest - g.getRetention();
+			if (bucket < expired) {
+				continue;
+			}
+			RollupStore.bucket(this.stateWide.get(g), bucket, expired).add(meas);
+			if (id >= 0) {
+				RollupStore.bucket(this.getPlantBuckets(g, id, true), bucket, expired).add(meas);
+			}
+		}
+	}
+
+	/**
+	 * Get or create a bucket, a new one drops the buckets starting before <code>expired</code>
+	 */
+	private static RollupBucket bucket(NavigableMap<Long, RollupBucket> buckets, long start, long expired) {
+		RollupBucket b = buckets.get(start);
+		if (b == null) {
+			b = new RollupBucket();
+			buckets.put(start, b);
+			buckets.headMap(expired, false).clear();
+		}
+		return b;
+	}
+
+	/**
+	 * Aggregate of the whole state over a time range.
+	 *
+	 * @param from start (inclusive), rounded down to the bucket
+	 * @param to   end (exclusive), rounded up to the bucket
+	 */
+	public synchronized RollupBucket query(RollupGranularity g, long from, long to) {
+		return merge(this.range(this.stateWide.get(g), g, from, to));
+	}
+
+	/**
+	 * Aggregate of a plant over a time range.
+	 *
+	 * @param from start (inclusive), rounded down to the bucket
+	 * @param to   end (exclusive), rounded up to the bucket
+	 */
+	public synchronized RollupBucket query(RollupGranularity g, SewagePlant plant, long from, long to) {
+		return merge(this.range(this.getPlantBuckets(g, plant.getId(), false), g, from, to));
+	}
+
+	/**
+	 * Copy of the single buckets of the whole state within a time range, e.g. to draw a trend.
+	 *
+	 * @return buckets by their start
+	 */
+	public synchronized NavigableMap<Long, RollupBucket> buckets(RollupGranularity g, long from, long to) {
+		NavigableMap<Long, RollupBucket> copy = new TreeMap<>();
+		for (Map.Entry<Long, RollupBucket> e :
+				this.range(this.stateWide.get(g), g, from, to).entrySet()) {
+			RollupBucket b = new RollupBucket();
+			b.merge(e.getValue());
+			copy.put(e.getKey(), b);
+		}
+		return copy;
+	}
+
+	private NavigableMap<Long, RollupBucket> range(NavigableMap<Long, RollupBucket> buckets, RollupGranularity g, long from, long to) {
+		if (buckets == null) {
+			return Collections.emptyNavigableMap();
+		}
+		return buckets.subMap(g.bucketOf(from), true, to, false);
+	}
+
+	private static RollupBucket merge(NavigableMap<Long, RollupBucket> buckets) {
+		RollupBucket result = new RollupBucket();
+		for (RollupBucket b :
+				buckets.values()) {
+			result.merge(b);
+		}
+		return result;
+	}
+
+	private NavigableMap<Long, RollupBucket> getPlantBuckets(RollupGranularity g, int id, boolean create) {
+		NavigableMap<Long, RollupBucket>[] buckets = this.perPlant.get(g);
+		if (id < 0) {
+			return null;
+		}
+		if (id >= buckets.length) {
+			if (!create) {
+				return null;
+			}
+			buckets = Arrays.copyOf(buckets, Math.max(id + 1, buckets.length * 2));
+			this.perPlant.put(g, buckets);
+		}
+		if (buckets[id] == null && create) {
+			buckets[id] = new TreeMap<>();
+		}
+		return buckets[id];
+	}
+}
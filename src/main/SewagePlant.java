@@ -5,12 +5,21 @@ package main;
  */
 public class SewagePlant implements MapItem {
 
+	private int id;
 	private String name;
 	private int population;
 	private double longitude;
 	private double latitude;
 
 	public SewagePlant(String name, int population, double longitude, double latitude) throws KloaCov2Exception {
+		this(-1, name, population, longitude, latitude);
+	}
+
+	/**
+	 * @param id stable id of the plant (its position in the plant catalog), used to reference it in the journal
+	 */
+	public SewagePlant(int id, String name, int population, double longitude, double latitude) throws KloaCov2Exception {
+		this.id = id;
 		this.name = name;
 		this.population = population;
 		if (longitude < 7 || longitude > 10 || latitude < 47 || latitude > 50) {
@@ -39,6 +48,15 @@ public class SewagePlant implements MapItem {
 		return population;
 	}
 
+	@Override
+	public double getWeight() {
+		return this.population;
+	}
+
+	public int getId() {
+		return id;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -3,7 +3,7 @@ package main;
 import javax.swing.*;
 import java.awt.*;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Matrikel-Nr. 3354235
@@ -11,7 +11,7 @@ import java.util.Map;
 public class SewageTerminal extends JFrame {
 
 	private SewagePlant plant;
-	private RKITerminal rki;
+	private MeasurementSubmitter rki;
 
 	private HashMap<Variant, JTextField> mapTextFields = new HashMap<>();
 
@@ -19,29 +19,32 @@ public class SewageTerminal extends JFrame {
 
 	private JButton btnSend = new JButton("Send");
 
-	public SewageTerminal(SewagePlant plant, RKITerminal rki) {
+	/**
+	 * @param rki the RKI in this JVM or a connection to a remote one
+	 */
+	public SewageTerminal(SewagePlant plant, MeasurementSubmitter rki) {
 		this.plant = plant;
 		this.rki = rki;
 
 		this.setTitle(this.plant.getTitle());
 
-		this.panelNorth.setLayout(new GridLayout(Variant.values().length, 2, 5, 5));
+		this.panelNorth.setLayout(new GridLayout(0, 2, 5, 5));
 		for (Variant v :
-				Variant.values()) {
-			JLabel labelName = new JLabel(v.toString());
-			this.panelNorth.add(labelName);
-			JTextField textField = new JTextField();
-			this.mapTextFields.put(v, textField);
-			this.panelNorth.add(textField);
+				VariantRegistry.getDefault().values()) {
+			this.addVariant(v);
 		}
+		VariantRegistry.getDefault().addListener(v -> SwingUtilities.invokeLater(() -> {
+			this.addVariant(v);
+			this.pack();
+		}));
 		this.add(panelNorth, BorderLayout.NORTH);
 
 		this.btnSend.addActionListener(e -> {
-			Map<Variant, Integer> measurements = new HashMap<>();
+			int[] measurements = new int[VariantRegistry.getDefault().size()];
 			for (Variant v :
 					this.mapTextFields.keySet()) {
 				try {
-					measurements.put(v, Integer.parseInt(this.mapTextFields.get(v).getText()));
+					measurements[v.getId()] = Integer.parseInt(this.mapTextFields.get(v).getText());
 				} catch (NumberFormatException exception) {
 					String message = "Invalid input for " + v.toString() + ": " + this.mapTextFields.get(v).getText();
 					JOptionPane.showMessageDialog(this, message);
@@ -49,7 +52,16 @@ public class SewageTerminal extends JFrame {
 				}
 			}
 
-			rki.receiveMeasurements(new VariantMeasurement(this.plant, measurements));
+			try {
+				// never block the EDT for long, the RKI drops out instead
+				if (!rki.offer(new VariantMeasurement(this.plant, System.currentTimeMillis(), measurements), 100, TimeUnit.MILLISECONDS)) {
+					JOptionPane.showMessageDialog(this, "RKI is busy, please try again later");
+					return;
+				}
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return;
+			}
 
 			for (Variant v :
 					this.mapTextFields.keySet()) {
@@ -57,12 +69,8 @@ public class SewageTerminal extends JFrame {
 			}
 			this.btnSend.setEnabled(false);
 
-			Thread t = new Thread(() -> {
-				try {
-					Thread.sleep(10000);
-				} catch (InterruptedException ex) {
-					ex.printStackTrace();
-				}
+			// re-enable on the EDT after 10 seconds
+			Timer t = new Timer(10000, event -> {
 				for (Variant v :
 						this.mapTextFields.keySet()) {
 					this.mapTextFields.get(v).setText("");
@@ -70,6 +78,7 @@ public class SewageTerminal extends JFrame {
 				}
 				this.btnSend.setEnabled(true);
 			});
+			t.setRepeats(false);
 			t.start();
 		});
 		this.add(btnSend);
@@ -78,4 +87,20 @@ public class SewageTerminal extends JFrame {
 		this.setVisible(true);
 		this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 	}
+
+	/**
+	 * Add an input row for a variant, also used for variants registered while the terminal is open
+	 */
+	private void addVariant(Variant v) {
+		if (this.mapTextFields.containsKey(v)) {
+			return;
+		}
+		JLabel labelName = new JLabel(v.toString());
+		this.panelNorth.add(labelName);
+		JTextField textField = new JTextField();
+		textField.setEnabled(this.btnSend.isEnabled());
+		this.mapTextFields.put(v, textField);
+		this.panelNorth.add(textField);
+		this.panelNorth.revalidate();
+	}
 }
@@ -0,0 +1,164 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Periodically checkpoints a {@link MeasurementStore} to snapshot files and finds the newest valid one on startup.
+ * <p>
+ * A snapshot records the journal position it covers, so recovery only has to replay the journal behind it and
+ * recovery time depends on the snapshot interval instead of the age of the deployment.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class SnapshotManager {
+
+	public static final long DEFAULT_INTERVAL_MILLIS = 60 * 1000;
+
+	/**
+	 * Number of snapshots to keep, older ones are deleted. More than one in case the newest is damaged.
+	 */
+	private static final int SNAPSHOTS_TO_KEEP = 2;
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+
+	private final MeasurementStore store;
+	private final Path directory;
+	private final long intervalMillis;
+
+	private ScheduledExecutorService scheduler;
+	private long lastPosition = -1;
+
+	public SnapshotManager(MeasurementStore store, Path directory) {
+		this(store, directory, DEFAULT_INTERVAL_MILLIS);
+	}
+
+	public SnapshotManager(MeasurementStore store, Path directory, long intervalMillis) {
+		this.store = store;
+		this.directory = directory;
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * Start checkpointing in the background
+	 */
+	public void start() {
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "snapshot");
+			t.setDaemon(true);
+			return t;
+		});
+		this.scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				this.checkpoint();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() throws InterruptedException {
+		if (this.scheduler != null) {
+			this.scheduler.shutdown();
+			this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	/**
+	 * Write a snapshot of the current state, unless nothing was logged since the last one. The journal may then
+	 * delete the segments all kept snapshots cover.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		StateSnapshot snapshot = this.store.snapshot();
+		if (snapshot.getPosition() == this.lastPosition) {
+			return;
+		}
+
+		Files.createDirectories(this.directory);
+		Path target = this.snapshotPath(snapshot.getPosition());
+		Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			snapshot.writeTo(out);
+		}
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.lastPosition = snapshot.getPosition();
+
+		List<Long> positions = this.listSnapshots();
+		for (int i = SNAPSHOTS_TO_KEEP; i < positions.size(); i++) {
+			Files.deleteIfExists(this.snapshotPath(positions.get(i)));
+		}
+		MeasurementJournal journal = this.store.getJournal();
+		if (journal != null) {
+			// the oldest kept snapshot may be needed if the newer ones are damaged
+			journal.setCheckpoint(positions.get(Math.min(SNAPSHOTS_TO_KEEP, positions.size()) - 1));
+		}
+	}
+
+	/**
+	 * Load the newest snapshot that is readable and consistent.
+	 *
+	 * @param plants lookup of plants by id
+	 * @return the snapshot or <code>null</code> if there is none
+	 */
+	public StateSnapshot loadLatest(IntFunction<SewagePlant> plants) throws IOException {
+		if (!Files.isDirectory(this.directory)) {
+			return null;
+		}
+		for (long position :
+				this.listSnapshots()) {
+			Path path = this.snapshotPath(position);
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+				StateSnapshot snapshot = StateSnapshot.readFrom(in, (int) Files.size(path), plants);
+
+				AggregateEngine aggregates = new AggregateEngine();
+				for (VariantMeasurement meas :
+						snapshot.getMeasurements()) {
+					aggregates.replace(null, meas);
+				}
+				if (!snapshot.matches(aggregates)) {
+					throw new KloaCov2Exception("Aggregates do not match measurements");
+				}
+				this.lastPosition = snapshot.getPosition();
+				return snapshot;
+			} catch (KloaCov2Exception | IOException e) {
+				System.err.println("Ignoring snapshot " + path + ": " + e.getMessage());
+			}
+		}
+		return null;
+	}
+
+	private Path snapshotPath(long position) {
+		return this.directory.resolve(String.format("%s%016d%s", SNAPSHOT_PREFIX, position, SNAPSHOT_SUFFIX));
+	}
+
+	/**
+	 * @return positions of all snapshots, newest first
+	 */
+	private List<Long> listSnapshots() throws IOException {
+		List<Long> positions = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+			for (Path p :
+					stream) {
+				String name = p.getFileName().toString();
+				positions.add(Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())));
+			}
+		}
+		positions.sort(Collections.reverseOrder());
+		return positions;
+	}
+}
@@ -0,0 +1,213 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Running aggregates over the latest measurement of every plant, organized as a quadtree over longitude and
+ * latitude, so the aggregates of any rectangle can be computed without visiting every plant.
+ * <p>
+ * Every node keeps the per-variant sums, the number of measuring plants and their population for its area.
+ * Replacing a measurement adjusts the nodes on the path to the plant's leaf by the delta. A rectangle query adds
+ * up the nodes completely inside it and only descends into nodes crossing its border, i.e. it costs
+ * O(log n + nodes on the border) instead of O(plants).
+ * <p>
+ * Writers lock the whole tree, as an update only touches one path. Readers share a read lock.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class SpatialAggregateTree {
+
+	/**
+	 * Bounds of the tree, equal to the bounds accepted by {@link SewagePlant}
+	 */
+	public static final double MIN_LON = 7;
+	public static final double MAX_LON = 10;
+	public static final double MIN_LAT = 47;
+	public static final double MAX_LAT = 50;
+
+	/**
+	 * Plants in a leaf before it is split
+	 */
+	private static final int LEAF_CAPACITY = 16;
+
+	/**
+	 * Leaves this deep are not split any more (plants at the same position)
+	 */
+	private static final int MAX_DEPTH = 24;
+
+	private final StampedLock lock = new StampedLock();
+	private final Node root = new Node(MIN_LON, MIN_LAT, MAX_LON, MAX_LAT, 0);
+
+	/**
+	 * Replace the measurement of a plant.
+	 *
+	 * @param old  measurement previously stored for the plant, <code>null</code> if there was none
+	 * @param meas new measurement of the plant
+	 */
+	public void replace(VariantMeasurement old, VariantMeasurement meas) {
+		SewagePlant plant = meas.getPlant();
+		int values = Math.max(meas.getValueCount(), old == null ? 0 : old.getValueCount());
+		long stamp = this.lock.writeLock();
+		try {
+			Node node = this.root;
+			while (true) {
+				node.grow(values);
+				if (old == null) {
+					node.count++;
+					node.population += plant.getPopulation();
+				}
+				for (int i = 0; i < node.sums.length; i++) {
+					node.sums[i] += meas.getValue(i) - (old == null ? 0 : old.getValue(i));
+				}
+				if (node.children == null) {
+					break;
+				}
+				node = node.childFor(plant);
+			}
+
+			if (old == null) {
+				node.measurements.add(meas);
+				if (node.measurements.size() > LEAF_CAPACITY && node.depth < MAX_DEPTH) {
+					node.split();
+				}
+			} else {
+				for (int i = 0; i < node.measurements.size(); i++) {
+					if (node.measurements.get(i).getPlant() == plant) {
+						node.measurements.set(i, meas);
+						break;
+					}
+				}
+			}
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Aggregates of all plants inside the rectangle (bounds included).
+	 */
+	public AggregateEngine.Totals query(double minLon, double minLat, double maxLon, double maxLat) {
+		long[] sums = new long[VariantRegistry.getDefault().size()];
+		long[] countAndPopulation = new long[2];
+		long stamp = this.lock.readLock();
+		try {
+			this.root.query(minLon, minLat, maxLon, maxLat, sums, countAndPopulation);
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+		return new AggregateEngine.Totals(sums, (int) countAndPopulation[0], countAndPopulation[1]);
+	}
+
+	private static class Node {
+		private final double minLon;
+		private final double minLat;
+		private final double maxLon;
+		private final double maxLat;
+		private final int depth;
+
+		/**
+		 * Grows with the first measurement of a variant registered later
+		 */
+		private long[] sums = new long[VariantRegistry.getDefault().size()];
+		private int count = 0;
+		private long population = 0;
+
+		/**
+		 * <code>null</code> for leaves, else south west, south east, north west, north east
+		 */
+		private Node[] children;
+
+		/**
+		 * Latest measurement of every plant in a leaf, <code>null</code> for inner nodes
+		 */
+		private List<VariantMeasurement> measurements = new ArrayList<>(LEAF_CAPACITY + 1);
+
+		private Node(double minLon, double minLat, double maxLon, double maxLat, int depth) {
+			this.minLon = minLon;
+			this.minLat = minLat;
+			this.maxLon = maxLon;
+			this.maxLat = maxLat;
+			this.depth = depth;
+		}
+
+		private void grow(int values) {
+			if (values > this.sums.length) {
+				this.sums = Arrays.copyOf(this.sums, values);
+			}
+		}
+
+		private Node childFor(SewagePlant plant) {
+			int east = plant.getLongitude() >= (this.minLon + this.maxLon) / 2 ? 1 : 0;
+			int north = plant.getLatitude() >= (this.minLat + this.maxLat) / 2 ? 2 : 0;
+			return this.children[north + east];
+		}
+
+		/**
+		 * Turn the leaf into an inner node, the children get their aggregates from the measurements moved to them
+		 */
+		private void split() {
+			double midLon = (this.minLon + this.maxLon) / 2;
+			double midLat = (this.minLat + this.maxLat) / 2;
+			this.children = new Node[]{
+					new Node(this.minLon, this.minLat, midLon, midLat, this.depth + 1),
+					new Node(midLon, this.minLat, this.maxLon, midLat, this.depth + 1),
+					new Node(this.minLon, midLat, midLon, this.maxLat, this.depth + 1),
+					new Node(midLon, midLat, this.maxLon, this.maxLat, this.depth + 1)};
+			for (VariantMeasurement meas :
+					this.measurements) {
+				Node child = this.childFor(meas.getPlant());
+				child.count++;
+				child.population += meas.getPlant().getPopulation();
+				child.grow(meas.getValueCount());
+				for (int i = 0; i < child.sums.length; i++) {
+					child.sums[i] += meas.getValue(i);
+				}
+				child.measurements.add(meas);
+			}
+			this.measurements = null;
+			// all plants may have ended up in the same child
+			for (Node child :
+					this.children) {
+				if (child.measurements.size() > LEAF_CAPACITY && child.depth < MAX_DEPTH) {
+					child.split();
+				}
+			}
+		}
+
+		private void query(double minLon, double minLat, double maxLon, double maxLat, long[] sums,
+						   long[] countAndPopulation) {
+			if (this.count == 0 || this.maxLon < minLon || this.minLon > maxLon || this.maxLat < minLat
+					|| this.minLat > maxLat) {
+				return;
+			}
+			if (this.minLon >= minLon && this.maxLon <= maxLon && this.minLat >= minLat && this.maxLat <= maxLat) {
+				for (int i = 0; i < Math.min(sums.length, this.sums.length); i++) {
+					sums[i] += this.sums[i];
+				}
+				countAndPopulation[0] += this.count;
+				countAndPopulation[1] += this.population;
+			} else if (this.children != null) {
+				for (Node child :
+						this.children) {
+					child.query(minLon, minLat, maxLon, maxLat, sums, countAndPopulation);
+				}
+			} else {
+				for (VariantMeasurement meas :
+						this.measurements) {
+					SewagePlant plant = meas.getPlant();
+					if (plant.getLongitude() >= minLon && plant.getLongitude() <= maxLon
+							&& plant.getLatitude() >= minLat && plant.getLatitude() <= maxLat) {
+						for (int i = 0; i < sums.length; i++) {
+							sums[i] += meas.getValue(i);
+						}
+						countAndPopulation[0]++;
+						countAndPopulation[1] += plant.getPopulation();
+					}
+				}
+			}
+		}
+	}
+}
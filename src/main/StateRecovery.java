@@ -0,0 +1,305 @@
+package main;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Rebuilds the state of a {@link MeasurementStore} on startup.
+ * <p>
+ * First the newest snapshot is restored, or, if there is none, the old text log (<code>ppp-logs.txt</code>) is
+ * replayed. Then the binary journal behind that is replayed, so the store ends up with the latest measurement of
+ * every plant. The text log is split into chunks at line boundaries which
+ * are parsed in parallel; every chunk only keeps the latest measurement per plant, the chunks are then merged
+ * in file order.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class StateRecovery {
+
+	/**
+	 * Format of {@link Date#toString()}
+	 */
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+	/**
+	 * Replayed journal records are handed to the replay listeners in batches of this size
+	 */
+	private static final int REPLAY_BATCH_SIZE = MeasurementIngestService.DEFAULT_MAX_BATCH_SIZE;
+
+	private final PlantRegistry plants;
+
+	private final AtomicInteger parseErrors = new AtomicInteger();
+
+	private final List<MeasurementListener> replayListeners = new ArrayList<>();
+
+	public StateRecovery(PlantRegistry plants) {
+		this.plants = plants;
+	}
+
+	/**
+	 * Be given every record replayed from the journal, in order, to rebuild state that is not part of a snapshot
+	 * (history, baselines). Only the journal behind the restored snapshot is replayed, so startup time does not
+	 * grow with the age of the deployment and listeners see the recent measurements only. Listeners are called
+	 * before the store is restored.
+	 */
+	public void addReplayListener(MeasurementListener listener) {
+		this.replayListeners.add(listener);
+	}
+
+	/**
+	 * Replay the text log and the journal into the store.
+	 *
+	 * @param textLog old text log, ignored if it does not exist
+	 * @param journal journal to replay from its beginning, may be <code>null</code>
+	 */
+	public void recover(MeasurementStore store, Path textLog, MeasurementJournal journal) throws IOException, KloaCov2Exception {
+		this.recover(store, textLog, journal, null);
+	}
+
+	/**
+	 * Restore the newest valid snapshot and replay the journal behind it. Without a snapshot, the text log and
+	 * the whole journal are replayed.
+	 *
+	 * @param textLog   old text log, ignored if it does not exist or a snapshot was found
+	 * @param journal   journal to replay, may be <code>null</code>
+	 * @param snapshots snapshots to restore from, may be <code>null</code>
+	 */
+	public void recover(MeasurementStore store, Path textLog, MeasurementJournal journal, SnapshotManager snapshots) throws IOException, KloaCov2Exception {
+		StateSnapshot snapshot = snapshots == null ? null : snapshots.loadLatest(this.plants::getPlant);
+
+		Map<SewagePlant, VariantMeasurement> latest = new LinkedHashMap<>();
+		long position = 0;
+		if (snapshot != null) {
+			// the snapshot already contains everything from the text log
+			store.restore(snapshot.getMeasurements());
+			position = snapshot.getPosition();
+		} else if (Files.exists(textLog)) {
+			latest.putAll(this.replayTextLog(textLog));
+		}
+		if (journal != null) {
+			List<VariantMeasurement> replayed = new ArrayList<>();
+			journal.read(position, this.plants::getPlant, meas -> {
+				latest.put(meas.getPlant(), meas);
+				if (!this.replayListeners.isEmpty()) {
+					replayed.add(meas);
+					if (replayed.size() == REPLAY_BATCH_SIZE) {
+						this.notifyReplayed(replayed);
+					}
+				}
+			});
+			this.notifyReplayed(replayed);
+			if (snapshots != null) {
+				// until the next checkpoint, the next recovery needs the same records
+				journal.setCheckpoint(position);
+			}
+		}
+		store.restore(new ArrayList<>(latest.values()));
+	}
+
+	private void notifyReplayed(List<VariantMeasurement> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		for (MeasurementListener l :
+				this.replayListeners) {
+			l.measurementsApplied(batch);
+		}
+		batch.clear();
+	}
+
+	/**
+	 * @return number of lines that could not be parsed since this recovery was created
+	 */
+	public int getParseErrors() {
+		return this.parseErrors.get();
+	}
+
+	/**
+	 * Parse the text log in parallel chunks.
+	 *
+	 * @return latest measurement per plant
+	 */
+	public Map<SewagePlant, VariantMeasurement> replayTextLog(Path textLog) throws IOException {
+		try (FileChannel ch = FileChannel.open(textLog, StandardOpenOption.READ)) {
+			List<Long> bounds = LineChunks.split(ch);
+
+			List<Map<SewagePlant, VariantMeasurement>> chunks = IntStream.range(0, bounds.size() - 1)
+					.parallel()
+					.mapToObj(i -> this.parseChunk(ch, bounds.get(i), bounds.get(i + 1)))
+					.collect(Collectors.toList());
+
+			// later chunks win
+			Map<SewagePlant, VariantMeasurement> latest = new LinkedHashMap<>();
+			for (Map<SewagePlant, VariantMeasurement> chunk :
+					chunks) {
+				latest.putAll(chunk);
+			}
+			return latest;
+		}
+	}
+
+	private Map<SewagePlant, VariantMeasurement> parseChunk(FileChannel ch, long start, long end) {
+		Map<SewagePlant, VariantMeasurement> latest = new HashMap<>();
+		String text;
+		try {
+			text = LineChunks.read(ch, start, end);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return latest;
+		}
+
+		// only the last line of every plant matters, so the expensive parsing (date, values) is done for those only
+		Map<SewagePlant, String> latestLines = new HashMap<>();
+		forEachLine(text, line -> {
+			SewagePlant plant = this.getPlant(line);
+			if (plant != null) {
+				latestLines.put(plant, line);
+			}
+		});
+		Set<SewagePlant> failed = new HashSet<>();
+		for (Map.Entry<SewagePlant, String> e :
+				latestLines.entrySet()) {
+			VariantMeasurement meas = this.parseLine(e.getValue());
+			if (meas != null) {
+				latest.put(meas.getPlant(), meas);
+			} else {
+				failed.add(e.getKey());
+			}
+		}
+
+		if (!failed.isEmpty()) {
+			// the last line of these plants is malformed, fall back to their last valid one
+			Map<SewagePlant, List<String>> earlierLines = new HashMap<>();
+			forEachLine(text, line -> {
+				SewagePlant plant = this.plantOf(line);
+				if (plant != null && failed.contains(plant)) {
+					earlierLines.computeIfAbsent(plant, p -> new ArrayList<>()).add(line);
+				}
+			});
+			for (List<String> lines :
+					earlierLines.values()) {
+				for (int i = lines.size() - 2; i >= 0; i--) {
+					VariantMeasurement meas = this.parseLine(lines.get(i));
+					if (meas != null) {
+						latest.put(meas.getPlant(), meas);
+						break;
+					}
+				}
+			}
+		}
+		return latest;
+	}
+
+	private static void forEachLine(String text, Consumer<String> action) {
+		int lineStart = 0;
+		while (lineStart < text.length()) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if (lineEnd < 0) {
+				lineEnd = text.length();
+			}
+			action.accept(text.substring(lineStart, lineEnd).trim());
+			lineStart = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * Cheap structural check of a log line.
+	 *
+	 * @return plant of the line, <code>null</code> for empty lines, unknown plants and malformed lines
+	 */
+	private SewagePlant getPlant(String line) {
+		if (line.isEmpty()) {
+			return null;
+		}
+		SewagePlant plant = this.plantOf(line);
+		if (plant == null) {
+			this.parseErrors.incrementAndGet();
+		}
+		return plant;
+	}
+
+	/**
+	 * Same as {@link #getPlant(String)}, without counting parse errors
+	 */
+	private SewagePlant plantOf(String line) {
+		int dateEnd = line.indexOf("): {");
+		int dateStart = dateEnd < 0 ? -1 : line.lastIndexOf(" (", dateEnd);
+		return dateStart < 0 || !line.endsWith("}") ? null : this.plants.getPlant(line.substring(0, dateStart));
+	}
+
+	/**
+	 * Parse a line like <code>Bruchsal (Fri Oct 15 10:51:51 CEST 2021): {ALPHA (B.1.1.7)=5, BETA (B.1.351)=2}</code>
+	 * Variants that are not known yet are registered in the {@link VariantRegistry}, but only once the whole line
+	 * has been parsed, so a malformed line never adds a variant.
+	 *
+	 * @return the measurement, <code>null</code> for empty lines, unknown plants and malformed lines
+	 */
+	public VariantMeasurement parseLine(String line) {
+		SewagePlant plant = this.getPlant(line);
+		if (plant == null) {
+			return null;
+		}
+		int dateEnd = line.indexOf("): {");
+		int dateStart = line.lastIndexOf(" (", dateEnd);
+		try {
+			long timestamp = ZonedDateTime.parse(line.substring(dateStart + 2, dateEnd), DATE_FORMAT).toInstant().toEpochMilli();
+
+			VariantRegistry variants = VariantRegistry.getDefault();
+			String body = line.substring(dateEnd + 4, line.length() - 1);
+			String[] entries = body.isEmpty() ? new String[0] : body.split(", ");
+			String[] names = new String[entries.length];
+			String[] designations = new String[entries.length];
+			int[] entryValues = new int[entries.length];
+			for (int i = 0; i < entries.length; i++) {
+				String entry = entries[i];
+				int eq = entry.lastIndexOf('=');
+				if (eq < 0) {
+					throw new KloaCov2Exception("Malformed entry: " + entry);
+				}
+				int designation = entry.indexOf(" (");
+				int designationEnd = entry.lastIndexOf(')', eq);
+				names[i] = entry.substring(0, designation < 0 || designation > eq ? eq : designation);
+				designations[i] = designation < 0 || designationEnd < designation ? ""
+						: entry.substring(designation + 2, designationEnd);
+				entryValues[i] = Integer.parseInt(entry.substring(eq + 1));
+				if (variants.get(names[i]) == null) {
+					VariantRegistry.validate(names[i], designations[i]);
+				}
+			}
+
+			// the line is accepted, unknown variants can be registered now
+			int[] values = new int[variants.size()];
+			for (int i = 0; i < entries.length; i++) {
+				Variant v = variants.register(names[i], designations[i]);
+				if (v.getId() >= values.length) {
+					values = Arrays.copyOf(values, v.getId() + 1);
+				}
+				values[v.getId()] = entryValues[i];
+			}
+			return new VariantMeasurement(plant, timestamp, values);
+		} catch (DateTimeParseException | IllegalArgumentException | KloaCov2Exception e) {
+			this.parseErrors.incrementAndGet();
+			return null;
+		}
+	}
+}
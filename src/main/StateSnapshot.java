@@ -0,0 +1,173 @@
+package main;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint of the {@link MeasurementStore}: the latest measurement of every plant, the running aggregates and
+ * the journal position the checkpoint covers.
+ * <p>
+ * File layout: a header with magic, version, journal position, aggregates, then the measurements encoded by
+ * {@link MeasurementCodec} and finally a CRC32 of everything before it.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class StateSnapshot {
+
+	private static final int MAGIC = 0x4B434F56; // "KCOV"
+	// 2: records with checksum
+	private static final int VERSION = 2;
+
+	private final long position;
+	private final List<VariantMeasurement> measurements;
+	private final long[] sums;
+	private final int count;
+	private final long totalPopulation;
+
+	public StateSnapshot(long position, List<VariantMeasurement> measurements, long[] sums, int count, long totalPopulation) {
+		this.position = position;
+		this.measurements = Collections.unmodifiableList(measurements);
+		this.sums = sums;
+		this.count = count;
+		this.totalPopulation = totalPopulation;
+	}
+
+	/**
+	 * @return journal position covered by this snapshot, everything behind it has to be replayed
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	public List<VariantMeasurement> getMeasurements() {
+		return measurements;
+	}
+
+	public long getSum(Variant v) {
+		return v.getId() < this.sums.length ? this.sums[v.getId()] : 0;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getTotalPopulation() {
+		return totalPopulation;
+	}
+
+	public void writeTo(DataOutputStream out) throws IOException {
+		ByteBuffer records = ByteBuffer.allocate(this.measurements.stream().mapToInt(MeasurementCodec::recordSize).sum());
+		for (VariantMeasurement meas :
+				this.measurements) {
+			MeasurementCodec.encode(meas, records);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(5 * Integer.BYTES + 2 * Long.BYTES + this.sums.length * Long.BYTES);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(this.position);
+		header.putInt(this.count);
+		header.putLong(this.totalPopulation);
+		header.putInt(this.sums.length);
+		for (long sum :
+				this.sums) {
+			header.putLong(sum);
+		}
+		header.putInt(this.measurements.size());
+
+		CRC32 crc = new CRC32();
+		crc.update(header.array());
+		crc.update(records.array());
+		out.write(header.array());
+		out.write(records.array());
+		out.writeLong(crc.getValue());
+	}
+
+	/**
+	 * Read and validate a snapshot.
+	 *
+	 * @param length number of bytes of the snapshot
+	 * @param plants lookup of plants by id, records of unknown plants (e.g. removed from <code>plants.txt</code>)
+	 *               are skipped and the aggregates are recomputed from the remaining ones
+	 * @throws KloaCov2Exception if the snapshot is damaged
+	 */
+	public static StateSnapshot readFrom(DataInputStream in, int length, IntFunction<SewagePlant> plants) throws IOException, KloaCov2Exception {
+		if (length < Long.BYTES) {
+			throw new KloaCov2Exception("Snapshot too short");
+		}
+		byte[] data = new byte[length - Long.BYTES];
+		in.readFully(data);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if (crc.getValue() != in.readLong()) {
+			throw new KloaCov2Exception("Snapshot checksum mismatch");
+		}
+
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new KloaCov2Exception("Not a snapshot of this version");
+		}
+		long position = buf.getLong();
+		int count = buf.getInt();
+		long totalPopulation = buf.getLong();
+		// snapshots taken before a variant was registered have fewer sums, the missing ones are 0
+		long[] sums = new long[buf.getInt()];
+		for (int i = 0; i < sums.length; i++) {
+			sums[i] = buf.getLong();
+		}
+		int size = buf.getInt();
+		List<VariantMeasurement> measurements = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			VariantMeasurement meas = MeasurementCodec.decode(buf, plants);
+			if (meas == null) {
+				throw new KloaCov2Exception("Snapshot truncated");
+			}
+			if (meas.getPlant() != null) {
+				measurements.add(meas);
+			}
+		}
+		if (measurements.size() == size) {
+			return new StateSnapshot(position, measurements, sums, count, totalPopulation);
+		}
+
+		// the stored aggregates include the skipped plants
+		Arrays.fill(sums, 0);
+		totalPopulation = 0;
+		for (VariantMeasurement meas :
+				measurements) {
+			totalPopulation += meas.getPlant().getPopulation();
+			if (meas.getValueCount() > sums.length) {
+				sums = Arrays.copyOf(sums, meas.getValueCount());
+			}
+			for (int i = 0; i < meas.getValueCount(); i++) {
+				sums[i] += meas.getValue(i);
+			}
+		}
+		return new StateSnapshot(position, measurements, sums, measurements.size(), totalPopulation);
+	}
+
+	/**
+	 * Check that the stored aggregates match the aggregates of the given engine (rebuilt from the measurements).
+	 */
+	public boolean matches(AggregateEngine aggregates) {
+		if (aggregates.getCount() != this.count || aggregates.getTotalPopulation() != this.totalPopulation) {
+			return false;
+		}
+		AggregateEngine.Totals totals = aggregates.snapshot();
+		for (Variant v :
+				VariantRegistry.getDefault().values()) {
+			if (totals.getSum(v) != this.getSum(v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
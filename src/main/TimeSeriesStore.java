@@ -0,0 +1,324 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * History of the measurements per plant. The samples of the last {@link #DEFAULT_RETENTION_MILLIS} (or the
+ * configured retention) are kept in memory in columnar chunks, older ones are evicted. Ranges before that are
+ * read from the {@link MeasurementJournal}, which only opens the segments whose time range overlaps.
+ * <p>
+ * On startup, {@link #load()} reads the retention window from the journal, so startup time depends on the
+ * retention and not on the age of the deployment.
+ * <p>
+ * A chunk holds up to {@link #CHUNK_SIZE} samples: one column of <code>long</code> timestamps and one column of
+ * <code>int</code> values per variant, so a sample takes 8 bytes plus 4 bytes per variant. A chunk starts small
+ * and doubles until it is full, so plants with few samples stay small. Chunks can be allocated off-heap. Every
+ * chunk knows its time range, so range queries skip chunks outside the range and binary search inside the
+ * chunks (as long as samples arrived in time order, which is the usual case). A variant registered later starts
+ * a new chunk with a column for it, the older chunks report <code>0</code>.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class TimeSeriesStore implements MeasurementListener {
+
+	public static final int CHUNK_SIZE = 1024;
+	public static final long DEFAULT_RETENTION_MILLIS = 24L * 60 * 60 * 1000;
+
+	private static final int INITIAL_CHUNK_SIZE = 16;
+
+	/**
+	 * Receives the samples of a range query
+	 */
+	public interface SampleConsumer {
+		void accept(long timestamp, int value);
+	}
+
+	private final MeasurementJournal journal;
+	private final IntFunction<SewagePlant> plants;
+	private final long retentionMillis;
+	private final boolean offHeap;
+	private PlantSeries[] series = new PlantSeries[0];
+
+	/**
+	 * Samples from here on are in memory (unless evicted per plant), older ones are read from the journal
+	 */
+	private volatile long horizon;
+
+	/**
+	 * History of the samples ingested from now on, without a journal behind it
+	 */
+	public TimeSeriesStore() {
+		this(false);
+	}
+
+	/**
+	 * @param offHeap allocate the chunks outside of the Java heap
+	 */
+	public TimeSeriesStore(boolean offHeap) {
+		this(null, null, DEFAULT_RETENTION_MILLIS, offHeap);
+	}
+
+	/**
+	 * @param plants lookup of plants by id for the journal
+	 */
+	public TimeSeriesStore(MeasurementJournal journal, IntFunction<SewagePlant> plants) {
+		this(journal, plants, DEFAULT_RETENTION_MILLIS, false);
+	}
+
+	/**
+	 * @param journal         journal to read ranges before the retention window from, may be <code>null</code>
+	 * @param plants          lookup of plants by id for the journal
+	 * @param retentionMillis samples older than this (relative to the newest sample of a plant) are evicted
+	 * @param offHeap         allocate the chunks outside of the Java heap
+	 */
+	public TimeSeriesStore(MeasurementJournal journal, IntFunction<SewagePlant> plants, long retentionMillis, boolean offHeap) {
+		this.journal = journal;
+		this.plants = plants;
+		this.retentionMillis = retentionMillis;
+		this.offHeap = offHeap;
+		// until loaded, everything is in the journal
+		this.horizon = journal == null ? Long.MIN_VALUE : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Read the retention window from the journal. Has to be called before the store is registered as listener.
+	 */
+	public void load() throws IOException, KloaCov2Exception {
+		if (this.journal == null) {
+			return;
+		}
+		long from = System.currentTimeMillis() - this.retentionMillis;
+		this.journal.readRange(from, Long.MAX_VALUE, this.plants, this::append);
+		this.horizon = from;
+	}
+
+	@Override
+	public void measurementsApplied(List<VariantMeasurement> batch) {
+		for (VariantMeasurement meas :
+				batch) {
+			this.append(meas);
+		}
+	}
+
+	public void append(VariantMeasurement meas) {
+		int id = meas.getPlant().getId();
+		if (id < 0) {
+			return;
+		}
+		this.getSeries(id, true).append(meas);
+	}
+
+	/**
+	 * Visit all samples of a plant and variant with <code>from &lt;= timestamp &lt; to</code>. Samples read from
+	 * the journal come first, then the ones in memory, each in order of arrival.
+	 */
+	public void forEach(SewagePlant plant, Variant variant, long from, long to, SampleConsumer action) throws IOException, KloaCov2Exception {
+		this.forEach(plant, variant.getId(), from, to, action);
+	}
+
+	/**
+	 * @return sum of the values of a plant and variant with <code>from &lt;= timestamp &lt; to</code>
+	 */
+	public long sum(SewagePlant plant, Variant variant, long from, long to) throws IOException, KloaCov2Exception {
+		long[] sum = new long[1];
+		this.forEach(plant, variant, from, to, (timestamp, value) -> sum[0] += value);
+		return sum[0];
+	}
+
+	/**
+	 * @return number of samples of a plant with <code>from &lt;= timestamp &lt; to</code>
+	 */
+	public int count(SewagePlant plant, long from, long to) throws IOException, KloaCov2Exception {
+		int[] count = new int[1];
+		this.forEach(plant, 0, from, to, (timestamp, value) -> count[0]++);
+		return count[0];
+	}
+
+	/**
+	 * @return number of samples of a plant in memory
+	 */
+	public int size(SewagePlant plant) {
+		PlantSeries s = this.getSeries(plant.getId(), false);
+		return s == null ? 0 : s.size();
+	}
+
+	private void forEach(SewagePlant plant, int variant, long from, long to, SampleConsumer action) throws IOException, KloaCov2Exception {
+		PlantSeries s = this.getSeries(plant.getId(), false);
+		long since = Math.max(this.horizon, s == null ? Long.MIN_VALUE : s.getEvictedBefore());
+		if (this.journal != null && from < Math.min(to, since)) {
+			this.journal.readRange(from, Math.min(to, since), this.plants, meas -> {
+				if (meas.getPlant().getId() == plant.getId()) {
+					action.accept(meas.getTimestamp(), meas.getValue(variant));
+				}
+			});
+		}
+		if (s != null) {
+			s.forEach(variant, Math.max(from, since), to, action);
+		}
+	}
+
+	private synchronized PlantSeries getSeries(int id, boolean create) {
+		if (id < 0) {
+			return null;
+		}
+		if (id >= this.series.length) {
+			if (!create) {
+				return null;
+			}
+			this.series = Arrays.copyOf(this.series, Math.max(id + 1, this.series.length * 2));
+		}
+		if (this.series[id] == null && create) {
+			this.series[id] = new PlantSeries();
+		}
+		return this.series[id];
+	}
+
+	/**
+	 * All chunks of one plant
+	 */
+	private class PlantSeries {
+		private final Deque<Chunk> chunks = new ArrayDeque<>();
+
+		/**
+		 * Samples before this were evicted
+		 */
+		private long evictedBefore = Long.MIN_VALUE;
+
+		synchronized void append(VariantMeasurement meas) {
+			Chunk last = this.chunks.peekLast();
+			// a variant registered later starts a new chunk with a column for it
+			if (last == null || last.size == CHUNK_SIZE || last.variants < meas.getValueCount()) {
+				last = new Chunk(Math.max(VariantRegistry.getDefault().size(), meas.getValueCount()), TimeSeriesStore.this.offHeap);
+				this.chunks.add(last);
+			}
+			last.append(meas);
+
+			long expired = meas.getTimestamp() - TimeSeriesStore.this.retentionMillis;
+			while (this.chunks.peekFirst() != last && this.chunks.peekFirst().maxTimestamp < expired) {
+				this.evictedBefore = Math.max(this.evictedBefore, this.chunks.pollFirst().maxTimestamp + 1);
+			}
+		}
+
+		synchronized long getEvictedBefore() {
+			return this.evictedBefore;
+		}
+
+		synchronized void forEach(int variant, long from, long to, SampleConsumer action) {
+			for (Chunk c :
+					this.chunks) {
+				if (c.maxTimestamp >= from && c.minTimestamp < to) {
+					c.forEach(variant, from, to, action);
+				}
+			}
+		}
+
+		synchronized int size() {
+			int size = 0;
+			for (Chunk c :
+					this.chunks) {
+				size += c.size;
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Block of samples in columnar layout, growing up to {@link #CHUNK_SIZE}
+	 */
+	private static class Chunk {
+		private final int variants;
+		private final boolean offHeap;
+		private ByteBuffer data;
+		private int capacity = 0;
+		private int size = 0;
+		private long minTimestamp = Long.MAX_VALUE;
+		private long maxTimestamp = Long.MIN_VALUE;
+		private boolean sorted = true;
+
+		Chunk(int variants, boolean offHeap) {
+			this.variants = variants;
+			this.offHeap = offHeap;
+			this.grow(INITIAL_CHUNK_SIZE);
+		}
+
+		/**
+		 * Move the columns into a larger buffer
+		 */
+		private void grow(int capacity) {
+			int bytes = capacity * (Long.BYTES + this.variants * Integer.BYTES);
+			ByteBuffer grown = this.offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+			for (int i = 0; i < this.size; i++) {
+				grown.putLong(i * Long.BYTES, this.timestamp(i));
+			}
+			for (int v = 0; v < this.variants; v++) {
+				for (int i = 0; i < this.size; i++) {
+					grown.putInt(capacity * Long.BYTES + (v * capacity + i) * Integer.BYTES,
+							this.data.getInt(this.valueOffset(v, i)));
+				}
+			}
+			this.data = grown;
+			this.capacity = capacity;
+		}
+
+		void append(VariantMeasurement meas) {
+			if (this.size == this.capacity) {
+				this.grow(Math.min(CHUNK_SIZE, this.capacity * 2));
+			}
+			long timestamp = meas.getTimestamp();
+			this.sorted &= timestamp >= this.maxTimestamp;
+			this.minTimestamp = Math.min(this.minTimestamp, timestamp);
+			this.maxTimestamp = Math.max(this.maxTimestamp, timestamp);
+
+			this.data.putLong(this.size * Long.BYTES, timestamp);
+			for (int v = 0; v < this.variants; v++) {
+				this.data.putInt(this.valueOffset(v, this.size), meas.getValue(v));
+			}
+			this.size++;
+		}
+
+		void forEach(int variant, long from, long to, SampleConsumer action) {
+			int i = this.sorted ? this.lowerBound(from) : 0;
+			for (; i < this.size; i++) {
+				long timestamp = this.timestamp(i);
+				if (timestamp >= to && this.sorted) {
+					break;
+				}
+				if (timestamp >= from && timestamp < to) {
+					// samples taken before the variant was registered count with 0
+					action.accept(timestamp, variant < this.variants ? this.data.getInt(this.valueOffset(variant, i)) : 0);
+				}
+			}
+		}
+
+		/**
+		 * @return index of the first sample with <code>timestamp &gt;= from</code>
+		 */
+		private int lowerBound(long from) {
+			int low = 0;
+			int high = this.size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (this.timestamp(mid) < from) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private long timestamp(int i) {
+			return this.data.getLong(i * Long.BYTES);
+		}
+
+		private int valueOffset(int variant, int i) {
+			return this.capacity * Long.BYTES + (variant * this.capacity + i) * Integer.BYTES;
+		}
+	}
+}
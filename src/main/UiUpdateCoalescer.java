@@ -0,0 +1,118 @@
+package main;
+
+import javax.swing.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Limits how often the UI is updated, no matter how fast measurements arrive.
+ * <p>
+ * Applied batches only mark the state as dirty and remember the latest marker value per plant. A Swing timer
+ * publishes an immutable {@link Snapshot} on the EDT at most a fixed number of times per second.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class UiUpdateCoalescer implements MeasurementListener {
+
+	public static final int DEFAULT_UPDATES_PER_SECOND = 10;
+
+	/**
+	 * State to show in the UI
+	 */
+	public static class Snapshot {
+		private final long totalPopulation;
+		private final Map<Variant, Double> averages;
+		private final Map<Variant, DistributionStats.Summary> distributions;
+		private final Map<SewagePlant, Integer> markerValues;
+
+		private Snapshot(long totalPopulation, Map<Variant, Double> averages, Map<Variant, DistributionStats.Summary> distributions,
+						 Map<SewagePlant, Integer> markerValues) {
+			this.totalPopulation = totalPopulation;
+			this.averages = Collections.unmodifiableMap(averages);
+			this.distributions = Collections.unmodifiableMap(distributions);
+			this.markerValues = Collections.unmodifiableMap(markerValues);
+		}
+
+		public long getTotalPopulation() {
+			return totalPopulation;
+		}
+
+		public Map<Variant, Double> getAverages() {
+			return averages;
+		}
+
+		public Map<Variant, DistributionStats.Summary> getDistributions() {
+			return distributions;
+		}
+
+		/**
+		 * @return total value of every plant that changed since the last snapshot
+		 */
+		public Map<SewagePlant, Integer> getMarkerValues() {
+			return markerValues;
+		}
+	}
+
+	private final MeasurementStore store;
+	private final Consumer<Snapshot> ui;
+	private final Timer timer;
+
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+	private final Map<SewagePlant, Integer> pendingMarkers = new ConcurrentHashMap<>();
+
+	/**
+	 * @param ui                  receives the snapshots on the EDT
+	 * @param maxUpdatesPerSecond upper bound of published snapshots per second
+	 */
+	public UiUpdateCoalescer(MeasurementStore store, int maxUpdatesPerSecond, Consumer<Snapshot> ui) {
+		this.store = store;
+		this.ui = ui;
+		this.timer = new Timer(1000 / maxUpdatesPerSecond, e -> this.publish());
+		this.timer.setCoalesce(true);
+	}
+
+	public void start() {
+		this.timer.start();
+	}
+
+	public void stop() {
+		this.timer.stop();
+	}
+
+	@Override
+	public void measurementsApplied(List<VariantMeasurement> batch) {
+		for (VariantMeasurement meas :
+				batch) {
+			this.pendingMarkers.put(meas.getPlant(), meas.getTotalValue());
+		}
+		this.dirty.set(true);
+	}
+
+	private void publish() {
+		if (!this.dirty.getAndSet(false)) {
+			return;
+		}
+		Map<SewagePlant, Integer> markers = new HashMap<>();
+		for (SewagePlant p :
+				this.pendingMarkers.keySet()) {
+			Integer value = this.pendingMarkers.remove(p);
+			if (value != null) {
+				markers.put(p, value);
+			}
+		}
+		AggregateEngine.Totals totals = this.store.getTotals();
+		Map<Variant, Double> averages = new HashMap<>();
+		Map<Variant, DistributionStats.Summary> distributions = new HashMap<>();
+		for (Variant v :
+				VariantRegistry.getDefault().values()) {
+			averages.put(v, totals.getAverage(v));
+			distributions.put(v, this.store.getDistributions().getSummary(v));
+		}
+		this.ui.accept(new Snapshot(totals.getTotalPopulation(), averages, distributions, markers));
+	}
+}
@@ -1,27 +1,43 @@
 package main;
 
 /**
+ * A lineage known to the {@link VariantRegistry}.
+ * <p>
+ * Variants are only created by the registry, there is exactly one instance per name, so they can be compared
+ * by identity and used as map keys. The id is dense and stable across restarts, it is the index of the
+ * variant's value in {@link VariantMeasurement} and in all aggregates.
+ *
  * @author Matrikel-Nr. 3354235
  */
-public enum Variant {
-	ALPHA("B.1.1.7"),
-	BETA("B.1.351"),
-	GAMMA("P.1"),
-	DELTA("B.1.617"),
-	LAMBDA("C.37");
+public final class Variant {
 
-	private String designation;
+	private final int id;
+	private final String name;
+	private final String designation;
 
-	Variant(String designation) {
+	Variant(int id, String name, String designation) {
+		this.id = id;
+		this.name = name;
 		this.designation = designation;
 	}
 
+	/**
+	 * @return dense id, <code>0 .. VariantRegistry.size() - 1</code> in order of registration
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
 	public String getDesignation() {
 		return designation;
 	}
 
 	@Override
 	public String toString() {
-		return this.name() + " (" + designation + ")";
+		return this.designation.isEmpty() ? this.name : this.name + " (" + designation + ")";
 	}
 }
@@ -1,53 +1,121 @@
 package main;
 
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
+ * Values are kept in an <code>int[]</code> indexed by {@link Variant#getId()} and the total is computed once,
+ * so reading a measurement does not allocate.
+ *
  * @author Matrikel-Nr. 3354235
  */
 public class VariantMeasurement {
 	private SewagePlant plant;
-	private Date date;
-	private Map<Variant, Integer> measurements;
+	private long timestamp;
+	private int[] values;
+	private int totalValue;
+
+	/**
+	 * {@link System#nanoTime()} when the measurement was handed to the {@link MeasurementIngestService}
+	 */
+	private long receivedNanos;
 
 	public VariantMeasurement(SewagePlant plant) {
-		this.plant = plant;
-		this.date = new Date();
-		this.measurements = new HashMap<>();
+		this(plant, System.currentTimeMillis(), new int[VariantRegistry.getDefault().size()]);
 	}
 
 	public VariantMeasurement(SewagePlant plant, Map<Variant, Integer> measurements) {
-		this.plant = plant;
-		this.date = new Date();
-		this.measurements = measurements;
+		this(plant, new Date(), measurements);
 	}
 
 	public VariantMeasurement(SewagePlant plant, Date date, Map<Variant, Integer> measurements) {
+		this(plant, date.getTime(), toArray(measurements));
+	}
+
+	/**
+	 * @param values one value per variant, indexed by {@link Variant#getId()}, may be shorter than the
+	 *               number of variants. The array is taken over, not copied.
+	 */
+	public VariantMeasurement(SewagePlant plant, long timestamp, int[] values) {
 		this.plant = plant;
-		this.date = date;
-		this.measurements = measurements;
+		this.timestamp = timestamp;
+		this.values = values;
+		for (int value :
+				values) {
+			this.totalValue += value;
+		}
 	}
 
-	public int getTotalValue() {
-		int sum = 0;
-		for (Variant v :
-				this.measurements.keySet()) {
-			sum += this.measurements.get(v);
+	private static int[] toArray(Map<Variant, Integer> measurements) {
+		int[] values = new int[VariantRegistry.getDefault().size()];
+		for (Map.Entry<Variant, Integer> e :
+				measurements.entrySet()) {
+			if (e.getValue() != null) {
+				if (e.getKey().getId() >= values.length) {
+					values = Arrays.copyOf(values, e.getKey().getId() + 1);
+				}
+				values[e.getKey().getId()] = e.getValue();
+			}
 		}
-		return sum;
+		return values;
+	}
+
+	public int getTotalValue() {
+		return this.totalValue;
+	}
+
+	public int getValue(Variant v) {
+		return this.getValue(v.getId());
+	}
+
+	/**
+	 * @param index {@link Variant#getId()}
+	 * @return value of the variant, <code>0</code> if it was not measured
+	 */
+	public int getValue(int index) {
+		return index < this.values.length ? this.values[index] : 0;
+	}
+
+	/**
+	 * @return number of values, variants behind it were not measured
+	 */
+	public int getValueCount() {
+		return this.values.length;
 	}
 
 	public SewagePlant getPlant() {
 		return plant;
 	}
 
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	long getReceivedNanos() {
+		return receivedNanos;
+	}
+
+	void setReceivedNanos(long receivedNanos) {
+		this.receivedNanos = receivedNanos;
+	}
+
 	public Date getDate() {
-		return date;
+		return new Date(this.timestamp);
 	}
 
+	/**
+	 * Allocates a new map on every call, use {@link #getValue(Variant)} on hot paths.
+	 *
+	 * @return values of all known variants in order of their ids, in the format of <code>ppp-logs.txt</code> when converted to a string
+	 */
 	public Map<Variant, Integer> getMeasurements() {
+		Map<Variant, Integer> measurements = new LinkedHashMap<>();
+		for (Variant v :
+				VariantRegistry.getDefault().values()) {
+			measurements.put(v, this.getValue(v));
+		}
 		return measurements;
 	}
 }
@@ -0,0 +1,225 @@
+package main;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Catalog of all known variants, which can be extended while the application runs.
+ * <p>
+ * Variants get dense ids <code>0 .. size() - 1</code> in order of registration, so measurements and aggregates
+ * keep one array slot per variant. Arrays built before a variant was registered are simply shorter, a missing
+ * slot counts as <code>0</code>. Therefore old journal records, snapshots and remote terminals stay valid when
+ * a lineage is added.
+ * <p>
+ * The ids are persisted in a file with one variant per line (<code>name;designation</code>), new variants are
+ * appended to it. Lines must never be reordered or removed, the id of a variant is its position in the file.
+ * Lookups do not lock, registration is synchronized.
+ *
+ * @author Matrikel-Nr. 3354235
+ */
+public class VariantRegistry {
+
+	public static final String DEFAULT_FILE = "variants.txt";
+
+	/**
+	 * Used when there is no variant file yet
+	 */
+	private static final String[][] BUILT_IN = {
+			{"ALPHA", "B.1.1.7"},
+			{"BETA", "B.1.351"},
+			{"GAMMA", "P.1"},
+			{"DELTA", "B.1.617"},
+			{"LAMBDA", "C.37"}};
+
+	private static class DefaultHolder {
+		private static final VariantRegistry INSTANCE = loadDefault();
+	}
+
+	private final Path file;
+	private volatile Variant[] variants = new Variant[0];
+	private final Map<String, Variant> variantsByName = new ConcurrentHashMap<>();
+	private final List<Consumer<Variant>> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param file where new variants are appended to, <code>null</code> to keep them in memory only
+	 */
+	private VariantRegistry(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Registry with the built-in variants that is not persisted
+	 */
+	public VariantRegistry() {
+		this(null);
+		for (String[] v :
+				BUILT_IN) {
+			this.add(v[0], v[1]);
+		}
+	}
+
+	/**
+	 * @return the registry used by all components of the application, loaded from {@link #DEFAULT_FILE}
+	 */
+	public static VariantRegistry getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	private static VariantRegistry loadDefault() {
+		try {
+			return VariantRegistry.load(Paths.get(DEFAULT_FILE));
+		} catch (IOException | KloaCov2Exception e) {
+			System.err.println("Error loading " + DEFAULT_FILE + ", using the built-in variants: " + e.getMessage());
+			return new VariantRegistry();
+		}
+	}
+
+	/**
+	 * Load the registry from a file. If the file does not exist, the registry starts with the built-in variants
+	 * and the file is created on the first registration.
+	 *
+	 * @throws KloaCov2Exception if a line is malformed or a name appears twice, as the ids of all following
+	 *                           variants would be wrong
+	 */
+	public static VariantRegistry load(Path file) throws IOException, KloaCov2Exception {
+		VariantRegistry registry = new VariantRegistry(file);
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			lines = new ArrayList<>();
+			for (String[] v :
+					BUILT_IN) {
+				lines.add(v[0] + ";" + v[1]);
+			}
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] parts = line.split(";", -1);
+			if (parts.length != 2) {
+				throw new KloaCov2Exception("Line " + (i + 1) + ": expected 2 fields, got " + parts.length);
+			}
+			validate(parts[0], parts[1]);
+			if (registry.variantsByName.containsKey(parts[0])) {
+				throw new KloaCov2Exception("Line " + (i + 1) + ": duplicate variant " + parts[0]);
+			}
+			registry.add(parts[0], parts[1]);
+		}
+		return registry;
+	}
+
+	/**
+	 * Names and designations end up in <code>ppp-logs.txt</code> and in the variant file, so they must not
+	 * contain the separators of these formats.
+	 */
+	static void validate(String name, String designation) throws KloaCov2Exception {
+		if (name.isEmpty() || !name.matches("[A-Za-z0-9_.\\-]+")) {
+			throw new KloaCov2Exception("Invalid variant name: " + name);
+		}
+		if (!designation.matches("[^;,=()\\n\\r]*")) {
+			throw new KloaCov2Exception("Invalid designation of " + name + ": " + designation);
+		}
+	}
+
+	/**
+	 * Return the variant with the name, registering it first if it is unknown. New variants are appended to the
+	 * variant file before they become visible, so their id is never handed out twice.
+	 *
+	 * @param designation used for new variants only
+	 * @throws KloaCov2Exception if the name or designation is invalid or the variant file cannot be written
+	 */
+	public Variant register(String name, String designation) throws KloaCov2Exception {
+		Variant v = this.variantsByName.get(name);
+		if (v != null) {
+			return v;
+		}
+		synchronized (this) {
+			v = this.variantsByName.get(name);
+			if (v != null) {
+				return v;
+			}
+			validate(name, designation);
+			if (this.file != null) {
+				try {
+					if (Files.notExists(this.file)) {
+						List<String> lines = new ArrayList<>();
+						for (Variant known :
+								this.variants) {
+							lines.add(known.getName() + ";" + known.getDesignation());
+						}
+						Files.write(this.file, lines, StandardCharsets.UTF_8);
+					}
+					Files.write(this.file, Collections.singletonList(name + ";" + designation), StandardCharsets.UTF_8,
+							StandardOpenOption.APPEND);
+				} catch (IOException e) {
+					throw new KloaCov2Exception("Cannot save variant " + name + ": " + e.getMessage());
+				}
+			}
+			v = this.add(name, designation);
+		}
+		for (Consumer<Variant> listener :
+				this.listeners) {
+			listener.accept(v);
+		}
+		return v;
+	}
+
+	private Variant add(String name, String designation) {
+		Variant[] grown = Arrays.copyOf(this.variants, this.variants.length + 1);
+		Variant v = new Variant(this.variants.length, name, designation);
+		grown[v.getId()] = v;
+		this.variants = grown;
+		this.variantsByName.put(name, v);
+		return v;
+	}
+
+	/**
+	 * Be notified of variants registered later, e.g. to add them to a user interface. Listeners are called on
+	 * the registering thread.
+	 */
+	public void addListener(Consumer<Variant> listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * @return variant with the id or <code>null</code> if there is none
+	 */
+	public Variant get(int id) {
+		Variant[] variants = this.variants;
+		return id >= 0 && id < variants.length ? variants[id] : null;
+	}
+
+	/**
+	 * @return variant with the name or <code>null</code> if there is none
+	 */
+	public Variant get(String name) {
+		return this.variantsByName.get(name);
+	}
+
+	/**
+	 * @return all variants known right now, index = id
+	 */
+	public List<Variant> values() {
+		return Collections.unmodifiableList(Arrays.asList(this.variants));
+	}
+
+	public int size() {
+		return this.variants.length;
+	}
+}